@@ -21,7 +21,7 @@ public class ProductQueryService {
         //Chuẩn hoá tên
         String name = normalizeProductName(raw);
 
-        if (name.matches("(?i)^[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$")) {
+        if (name.matches("(?i)^[0-9a-f]{8}-[0-9a-f]{4}-[1-7][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$")) {
             var p = client.getById(name);
             return Optional.ofNullable(p);
         }
@@ -67,7 +67,7 @@ public class ProductQueryService {
 
         // 1) Nếu là UUID → lấy theo ID (cache productById)
         String trimmed = raw.trim();
-        if (trimmed.matches("(?i)^[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$")) {
+        if (trimmed.matches("(?i)^[0-9a-f]{8}-[0-9a-f]{4}-[1-7][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$")) {
             return Optional.ofNullable(getById(trimmed));
         }
 
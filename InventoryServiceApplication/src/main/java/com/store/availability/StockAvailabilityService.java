@@ -0,0 +1,126 @@
+package com.store.availability;
+
+import com.store.dto.Availability;
+import com.store.dto.AvailabilityRequest;
+import com.store.hotsku.HotSkuStock;
+import com.store.model.Inventory;
+import com.store.repository.InventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Đọc tồn kho cho nhiều product cùng lúc từ các key stock:{productId}: 1 lần MGET cho các id chưa có
+ * trong near-cache, id thiếu key Redis mới hỏi DB (findAllById) rồi SETNX lại key.
+ * Near-cache giữ kết quả rất ngắn (cache-ttl-ms) để gom các lần pre-check dồn dập ở checkout;
+ * id không tồn tại được cache âm lâu hơn (negative-ttl-ms) để không đập DB liên tục.
+ * Tồn kho trong Redis tính theo productId, nên size chỉ được trả lại nguyên vẹn, không lọc theo size.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "redis", matchIfMissing = true)
+public class StockAvailabilityService {
+
+    private record Cached(long quantity, boolean known, long expiresAt) {}
+
+    private final StringRedisTemplate redis;
+    private final InventoryRepository inventoryRepository;
+    private final HotSkuStock hotSku;
+    private final Map<String, Cached> nearCache = new ConcurrentHashMap<>();
+
+    @Value("${inventory.availability.cache-ttl-ms:200}")
+    private long cacheTtlMs;
+
+    @Value("${inventory.availability.negative-ttl-ms:5000}")
+    private long negativeTtlMs;
+
+    @Value("${inventory.availability.max-entries:10000}")
+    private int maxEntries;
+
+    public StockAvailabilityService(StringRedisTemplate redis, InventoryRepository inventoryRepository, HotSkuStock hotSku) {
+        this.redis = redis;
+        this.inventoryRepository = inventoryRepository;
+        this.hotSku = hotSku;
+    }
+
+    private String stockKey(String productId) { return "stock:" + productId; }
+
+    public List<Availability> check(List<AvailabilityRequest.Item> items) {
+        if (items == null || items.isEmpty()) return List.of();
+        Map<String, Cached> stock = lookup(items.stream()
+                .map(AvailabilityRequest.Item::getProductId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList());
+
+        List<Availability> out = new ArrayList<>(items.size());
+        for (var it : items) {
+            Cached c = it.getProductId() == null ? null : stock.get(it.getProductId());
+            boolean known = c != null && c.known();
+            long available = known ? c.quantity() : 0L;
+            int need = it.getQuantity() == null ? 1 : it.getQuantity();
+            out.add(Availability.builder()
+                    .productId(it.getProductId())
+                    .size(it.getSize())
+                    .requested(it.getQuantity())
+                    .available(available)
+                    .known(known)
+                    .inStock(known && available >= need)
+                    .build());
+        }
+        return out;
+    }
+
+    private Map<String, Cached> lookup(List<String> productIds) {
+        long now = System.currentTimeMillis();
+        Map<String, Cached> result = new HashMap<>(productIds.size() * 2);
+        List<String> misses = new ArrayList<>();
+        for (String id : productIds) {
+            Cached c = nearCache.get(id);
+            if (c != null && c.expiresAt() > now) result.put(id, c);
+            else misses.add(id);
+        }
+        if (misses.isEmpty()) return result;
+
+        // 1) 1 round-trip MGET cho toàn bộ id chưa có trong cache
+        List<String> vals = redis.opsForValue().multiGet(misses.stream().map(this::stockKey).toList());
+        List<String> noKey = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i++) {
+            String v = vals == null ? null : vals.get(i);
+            if (v == null) {
+                noKey.add(misses.get(i));
+                continue;
+            }
+            long qty = Long.parseLong(v);
+            // product hot: stock:{productId} = 0, tồn thật nằm ở các shard
+            if (hotSku.isHot(misses.get(i))) qty += hotSku.total(misses.get(i));
+            result.put(misses.get(i), new Cached(qty, true, now + cacheTtlMs));
+        }
+
+        // 2) Key Redis chưa có (Redis bị flush, product mới): hỏi DB 1 lần, nạp lại key; không có trong DB -> cache âm
+        if (!noKey.isEmpty()) {
+            Map<String, Integer> db = new HashMap<>();
+            for (Inventory inv : inventoryRepository.findAllById(noKey)) db.put(inv.getProductId(), inv.getQuantity());
+            for (String id : noKey) {
+                Integer qty = db.get(id);
+                if (qty == null) {
+                    result.put(id, new Cached(0L, false, now + negativeTtlMs));
+                } else {
+                    redis.opsForValue().setIfAbsent(stockKey(id), String.valueOf(qty));
+                    result.put(id, new Cached(qty, true, now + cacheTtlMs));
+                }
+            }
+            log.info("[AVAIL] Missing Redis keys={}, found in DB={}", noKey.size(), db.size());
+        }
+
+        // Cache nhỏ: vượt ngưỡng thì bỏ hết (TTL rất ngắn nên gần như không mất gì)
+        if (nearCache.size() + misses.size() > maxEntries) nearCache.clear();
+        for (String id : misses) nearCache.put(id, result.get(id));
+        return result;
+    }
+}
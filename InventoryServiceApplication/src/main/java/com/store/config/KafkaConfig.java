@@ -7,6 +7,7 @@ import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
@@ -24,6 +25,14 @@ import java.util.Map;
 @Configuration
 public class KafkaConfig {
 
+    // Topic của saga được key theo orderId (product-stock-decreased theo productId): thứ tự giữ theo từng order,
+    // các order khác nhau chạy song song trên nhiều partition; concurrency không nên vượt số partition
+    @Value("${inventory.kafka.partitions:6}")
+    private int partitions;
+
+    @Value("${inventory.kafka.concurrency:3}")
+    private int concurrency;
+
     /* ------------------- COMMON CONSUMER ------------------- */
     private Map<String, Object> baseConsumerProps(String groupId) {
         Map<String, Object> props = new HashMap<>();
@@ -66,17 +75,25 @@ public class KafkaConfig {
 
 
     //Order====================================
+    // Group commit: broker trả về khi gom đủ fetch.min.bytes hoặc hết batch-window-ms, tối đa batch-max-size order/lô
     @Bean(name = "orderCreatedKafkaListenerFactory")
-    public ConcurrentKafkaListenerContainerFactory<String, OrderCreated> orderCreatedKafkaListenerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, OrderCreated> orderCreatedKafkaListenerFactory(
+            @Value("${inventory.reserve.batch-max-size:200}") int batchMaxSize,
+            @Value("${inventory.reserve.batch-window-ms:5}") int batchWindowMs) {
         JsonDeserializer<OrderCreated> value = new JsonDeserializer<>(OrderCreated.class);
         value.addTrustedPackages("com.store.dto", "*");
         value.ignoreTypeHeaders();
 
-        var cf = new DefaultKafkaConsumerFactory<>(
-                baseConsumerProps("inventory-group"), new StringDeserializer(), value);
+        Map<String, Object> props = baseConsumerProps("inventory-group");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchMaxSize);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, 64 * 1024);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, batchWindowMs);
+        var cf = new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(), value);
 
         var f = new ConcurrentKafkaListenerContainerFactory<String, OrderCreated>();
         f.setConsumerFactory(cf);
+        f.setBatchListener(true);
+        f.setConcurrency(concurrency);
         return f;
     }
 
@@ -91,6 +108,7 @@ public class KafkaConfig {
 
         var f = new ConcurrentKafkaListenerContainerFactory<String, ReleaseStock>();
         f.setConsumerFactory(cf);
+        f.setConcurrency(concurrency);
         return f;
     }
 
@@ -117,6 +135,24 @@ public class KafkaConfig {
         return f;
     }
 
+    // Product sync dạng batch (InventoryService): 1 lần poll tối đa max.poll.records bản ghi của cả 3 topic product-*
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> productSyncBatchFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        // group chưa có offset cho topic nào thì đọc từ mới nhất: replay event cũ sẽ ghi đè tồn kho hiện tại
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);
+
+        ConcurrentKafkaListenerContainerFactory<String, String> f =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        f.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        f.setBatchListener(true);
+        return f;
+    }
+
     /* ------------------- PRODUCER (JSON) ------------------- */
     @Bean
     public ProducerFactory<String, Object> inventoryProducerFactory() {
@@ -125,6 +161,12 @@ public class KafkaConfig {
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
         props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        // OutboxRelay chờ ack rồi mới đánh dấu SENT: acks=all + idempotence để không mất/nhân bản khi retry,
+        // linger/batch để cả lô claim được gom thành ít request
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, 64 * 1024);
         return new DefaultKafkaProducerFactory<>(props);
     }
 
@@ -136,45 +178,50 @@ public class KafkaConfig {
     /* ------------------- TOPICS------------------- */
     @Bean
     public NewTopic topicOrderCreated() {
-        return TopicBuilder.name("order-created").partitions(1).replicas(1).build();
+        return TopicBuilder.name("order-created").partitions(partitions).replicas(1).build();
     }
 
     @Bean
     public NewTopic topicStockReserved() {
-        return TopicBuilder.name("stock-reserved").partitions(1).replicas(1).build();
+        return TopicBuilder.name("stock-reserved").partitions(partitions).replicas(1).build();
     }
 
     @Bean
     public NewTopic topicStockRejected() {
-        return TopicBuilder.name("stock-rejected").partitions(1).replicas(1).build();
+        return TopicBuilder.name("stock-rejected").partitions(partitions).replicas(1).build();
     }
 
     @Bean
     public NewTopic topicReleaseStock() {
-        return TopicBuilder.name("release-stock").partitions(1).replicas(1).build();
+        return TopicBuilder.name("release-stock").partitions(partitions).replicas(1).build();
     }
 
     @Bean
     public NewTopic topicStockReleased() {
-        return TopicBuilder.name("stock-released").partitions(1).replicas(1).build();
+        return TopicBuilder.name("stock-released").partitions(partitions).replicas(1).build();
     }
 
     @Bean
     public NewTopic topicProductStockDecreased() {
-        return TopicBuilder.name("product-stock-decreased").partitions(1).replicas(1).build();
+        return TopicBuilder.name("product-stock-decreased").partitions(partitions).replicas(1).build();
     }
 
     @Bean
     public NewTopic topicNotifyStockReserved() {
-        return TopicBuilder.name("notify-stock-reserved").partitions(1).replicas(1).build();
+        return TopicBuilder.name("notify-stock-reserved").partitions(partitions).replicas(1).build();
     }
     @Bean
     public NewTopic topicOrderConfirmed() {
-        return TopicBuilder.name("order-confirmed").partitions(1).replicas(1).build();
+        return TopicBuilder.name("order-confirmed").partitions(partitions).replicas(1).build();
     }
 
     @Bean
     public NewTopic topicOrderCancelled() {
-        return TopicBuilder.name("order-cancelled").partitions(1).replicas(1).build();
+        return TopicBuilder.name("order-cancelled").partitions(partitions).replicas(1).build();
+    }
+
+    @Bean
+    public NewTopic topicStockHoldExpired() {
+        return TopicBuilder.name("stock-hold-expired").partitions(partitions).replicas(1).build();
     }
 }
@@ -10,6 +10,8 @@ import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSeriali
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.List;
+
 @Configuration
 public class RedisConfig {
     @Bean
@@ -25,16 +27,17 @@ public class RedisConfig {
         DefaultRedisScript<Long> s = new DefaultRedisScript<>();
         s.setResultType(Long.class);
         s.setScriptText("""
-            -- KEYS[1]=stock:{productId}, KEYS[2]=order:seen:{orderId}
-            -- ARGV[1]=orderId, ARGV[2]=quantity, ARGV[3]=ttlSeenSeconds
-            if redis.call('EXISTS', KEYS[2]) == 1 then
+            -- KEYS[1]=stock:{productId}, KEYS[2]=idem:order:{orderId}
+            -- ARGV[1]=field inv:res:{productId}#{size}, ARGV[2]=quantity, ARGV[3]=ttlSeconds
+            if redis.call('HEXISTS', KEYS[2], ARGV[1]) == 1 then
               return 2
             end
             local stock = tonumber(redis.call('GET', KEYS[1]) or '0')
             local need = tonumber(ARGV[2])
             if stock >= need then
               redis.call('DECRBY', KEYS[1], need)
-              redis.call('SETEX', KEYS[2], tonumber(ARGV[3]), ARGV[1])
+              redis.call('HSET', KEYS[2], ARGV[1], need)
+              redis.call('EXPIRE', KEYS[2], tonumber(ARGV[3]))
               return 1
             else
               return 0
@@ -42,15 +45,243 @@ public class RedisConfig {
         """);
         return s;
     }
+    /**
+     * Giữ hàng cho nhiều order trong 1 lần EVAL (group commit), mỗi order all-or-nothing như trước.
+     * Trả về mảng theo order, mỗi phần tử là mảng kết quả theo thứ tự dòng: 1=OK, 0=insufficient, 2=duplicate,
+     * 3=aborted (dòng này đủ hàng nhưng dòng khác của cùng order thiếu nên không trừ).
+     * Order có trừ hàng và holdDeadline > 0 thì được ghi hạn giữ hàng vào sorted set inv:holds.
+     */
+    @Bean
+    public DefaultRedisScript<List> reserveBatchScript() {
+        DefaultRedisScript<List> s = new DefaultRedisScript<>();
+        s.setResultType(List.class);
+        s.setScriptText("""
+            -- KEYS: với mỗi order: n key stock:{productId} rồi idem:order:{orderId}; KEYS[#KEYS]=inv:holds
+            -- ARGV[1]=ttlSeconds, ARGV[2]=holdDeadlineMs (0 = không giữ có hạn), ARGV[3]=số order
+            -- rồi với mỗi order: orderId, n, quantity từng dòng (n), field inv:res:{productId}#{size} từng dòng (n)
+            local holds = KEYS[#KEYS]
+            local ttl = tonumber(ARGV[1])
+            local deadline = tonumber(ARGV[2])
+            local k = 1
+            local a = 4
+            local out = {}
+            for j = 1, tonumber(ARGV[3]) do
+              local orderId = ARGV[a]
+              local n = tonumber(ARGV[a + 1])
+              local idem = KEYS[k + n]
+              local res = {}
+              local need = {}
+              for i = 1, n do
+                if redis.call('HEXISTS', idem, ARGV[a + 1 + n + i]) == 1 then
+                  res[i] = 2
+                else
+                  res[i] = 1
+                  local key = KEYS[k + i - 1]
+                  need[key] = (need[key] or 0) + tonumber(ARGV[a + 1 + i])
+                end
+              end
+              local failed = false
+              for i = 1, n do
+                if res[i] == 1 then
+                  local key = KEYS[k + i - 1]
+                  local stock = tonumber(redis.call('GET', key) or '0')
+                  if stock < need[key] then
+                    res[i] = 0
+                    failed = true
+                  end
+                end
+              end
+              if failed then
+                for i = 1, n do
+                  if res[i] == 1 then res[i] = 3 end
+                end
+              else
+                local touched = false
+                for i = 1, n do
+                  if res[i] == 1 then
+                    redis.call('DECRBY', KEYS[k + i - 1], tonumber(ARGV[a + 1 + i]))
+                    redis.call('HINCRBY', idem, ARGV[a + 1 + n + i], tonumber(ARGV[a + 1 + i]))
+                    touched = true
+                  end
+                end
+                if touched then
+                  redis.call('EXPIRE', idem, ttl)
+                  if deadline > 0 then
+                    redis.call('ZADD', holds, deadline, orderId)
+                  end
+                end
+              end
+              out[j] = res
+              k = k + n + 1
+              a = a + 2 + 2 * n
+            end
+            return out
+        """);
+        return s;
+    }
     @Bean
     public DefaultRedisScript<Long> releaseScript() {
         DefaultRedisScript<Long> s = new DefaultRedisScript<>();
         s.setResultType(Long.class);
         s.setScriptText("""
-            -- KEYS[1]=stock:{productId}, KEYS[2]=order:seen:{orderId}
-            -- ARGV[1]=orderId, ARGV[2]=quantity
+            -- KEYS[1]=stock:{productId}, KEYS[2]=idem:order:{orderId}
+            -- ARGV[1]=field inv:rel:{productId}#{size}, ARGV[2]=quantity, ARGV[3]=ttlSeconds,
+            -- ARGV[4]=field inv:res:{productId}#{size} (số lượng dòng còn đang giữ)
+            -- Trả 0 nếu key stock chưa có (để caller nạp từ DB rồi gọi lại), không INCRBY từ 0
+            -- Trả 2 nếu dòng này đã được release (release-stock gửi lại, hoặc hold đã hết hạn và trả hàng trước)
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+              return 0
+            end
+            if redis.call('HSETNX', KEYS[2], ARGV[1], ARGV[2]) == 0 then
+              return 2
+            end
+            local qty = tonumber(ARGV[2])
+            local held = redis.call('HGET', KEYS[2], ARGV[4])
+            if held then
+              held = tonumber(held)
+              if held <= 0 then
+                return 2
+              end
+              if qty > held then qty = held end
+              redis.call('HSET', KEYS[2], ARGV[4], held - qty)
+            end
+            redis.call('INCRBY', KEYS[1], qty)
+            redis.call('EXPIRE', KEYS[2], tonumber(ARGV[3]))
+            return 1
+        """);
+        return s;
+    }
+    /**
+     * Hot SKU: gom tồn kho của các shard stock-shard:{productId}:{i} về shard đích (KEYS[1]) cho đủ need,
+     * phần còn lại chia đều cho mọi shard. Không đủ tổng thì không đổi gì. Trả về tổng tồn của các shard.
+     */
+    @Bean
+    public DefaultRedisScript<Long> hotSkuRebalanceScript() {
+        DefaultRedisScript<Long> s = new DefaultRedisScript<>();
+        s.setResultType(Long.class);
+        s.setScriptText("""
+            -- KEYS[1..n]=stock-shard:{productId}:{i} (KEYS[1] = shard cần hàng), ARGV[1]=need
+            local n = #KEYS
+            local total = 0
+            for i = 1, n do
+              total = total + tonumber(redis.call('GET', KEYS[i]) or '0')
+            end
+            local need = tonumber(ARGV[1])
+            if total < need then
+              return total
+            end
+            local rest = total - need
+            local share = math.floor(rest / n)
+            local extra = rest % n
+            for i = 1, n do
+              local v = share
+              if i <= extra then v = v + 1 end
+              if i == 1 then v = v + need end
+              redis.call('SET', KEYS[i], v)
+            end
+            return total
+        """);
+        return s;
+    }
+    /**
+     * Bật hot SKU: chuyển toàn bộ stock:{productId} (cộng cả shard còn sót) chia đều sang N shard,
+     * stock:{productId} giữ 0 để warm-up/ensure key không nạp lại từ DB. Trả về tổng tồn.
+     */
+    @Bean
+    public DefaultRedisScript<Long> hotSkuEnableScript() {
+        DefaultRedisScript<Long> s = new DefaultRedisScript<>();
+        s.setResultType(Long.class);
+        s.setScriptText("""
+            -- KEYS[1]=stock:{productId}, KEYS[2]=inv:hot-skus, KEYS[3..n+2]=stock-shard:{productId}:{i}
+            -- ARGV[1]=productId
+            local n = #KEYS - 2
+            local total = tonumber(redis.call('GET', KEYS[1]) or '0')
+            for i = 1, n do
+              total = total + tonumber(redis.call('GET', KEYS[i + 2]) or '0')
+            end
+            local share = math.floor(total / n)
+            local extra = total % n
+            for i = 1, n do
+              local v = share
+              if i <= extra then v = v + 1 end
+              redis.call('SET', KEYS[i + 2], v)
+            end
+            redis.call('SET', KEYS[1], 0)
+            redis.call('SADD', KEYS[2], ARGV[1])
+            return total
+        """);
+        return s;
+    }
+    /** Tắt hot SKU: cộng dồn các shard về stock:{productId} rồi xoá shard. Trả về tồn mới của stock:{productId}. */
+    @Bean
+    public DefaultRedisScript<Long> hotSkuDisableScript() {
+        DefaultRedisScript<Long> s = new DefaultRedisScript<>();
+        s.setResultType(Long.class);
+        s.setScriptText("""
+            -- KEYS[1]=stock:{productId}, KEYS[2]=inv:hot-skus, KEYS[3..n+2]=stock-shard:{productId}:{i}
+            -- ARGV[1]=productId
+            local sum = 0
+            for i = 3, #KEYS do
+              sum = sum + tonumber(redis.call('GET', KEYS[i]) or '0')
+              redis.call('DEL', KEYS[i])
+            end
+            redis.call('SREM', KEYS[2], ARGV[1])
+            return redis.call('INCRBY', KEYS[1], sum)
+        """);
+        return s;
+    }
+    /** Hoàn lại 1 dòng đã giữ trên shard khi order bị từ chối ở dòng khác (bù cho reserve không cùng 1 EVAL). */
+    @Bean
+    public DefaultRedisScript<Long> unreserveScript() {
+        DefaultRedisScript<Long> s = new DefaultRedisScript<>();
+        s.setResultType(Long.class);
+        s.setScriptText("""
+            -- KEYS[1]=stock-shard:{productId}:{i}, KEYS[2]=idem:order:{orderId}
+            -- ARGV[1]=field inv:res:{productId}#{size}, ARGV[2]=quantity
+            local left = redis.call('HINCRBY', KEYS[2], ARGV[1], -tonumber(ARGV[2]))
+            if left <= 0 then
+              redis.call('HDEL', KEYS[2], ARGV[1])
+            end
             redis.call('INCRBY', KEYS[1], tonumber(ARGV[2]))
-            redis.call('DEL', KEYS[2])
+            return 1
+        """);
+        return s;
+    }
+    /**
+     * Replay 1 dòng đã giữ thẳng ở MySQL lúc Redis lỗi: trừ bộ đếm, ghi field idempotency (và hạn giữ hàng)
+     * như thể dòng đã đi qua reserveBatchScript. Key stock chưa có thì không trừ: warm-up sẽ nạp từ DB,
+     * vốn đã trừ sẵn. Field inv:fb đánh dấu dòng đã replay nên chạy lại (crash trước khi DB ghi replayed) là no-op.
+     * Trả 2 nếu Redis đã có field inv:res của dòng từ trước (order được giữ ở cả 2 nơi).
+     */
+    @Bean
+    public DefaultRedisScript<Long> fallbackReplayScript() {
+        DefaultRedisScript<Long> s = new DefaultRedisScript<>();
+        s.setResultType(Long.class);
+        s.setScriptText("""
+            -- KEYS[1]=stock:{productId} (hoặc 1 stock-shard của product hot), KEYS[2]=idem:order:{orderId}, KEYS[3]=inv:holds
+            -- ARGV[1]=field inv:res, ARGV[2]=field inv:rel, ARGV[3]=quantity, ARGV[4]=released (0/1),
+            -- ARGV[5]=ttlSeconds, ARGV[6]=orderId, ARGV[7]=holdDeadlineMs, ARGV[8]=field inv:fb
+            if redis.call('HEXISTS', KEYS[2], ARGV[8]) == 1 then
+              return 1
+            end
+            if redis.call('HEXISTS', KEYS[2], ARGV[1]) == 1 then
+              return 2
+            end
+            local qty = tonumber(ARGV[3])
+            if ARGV[4] == '1' then
+              redis.call('HSET', KEYS[2], ARGV[1], 0)
+              redis.call('HSET', KEYS[2], ARGV[2], qty)
+            else
+              if redis.call('EXISTS', KEYS[1]) == 1 then
+                redis.call('DECRBY', KEYS[1], qty)
+              end
+              redis.call('HSET', KEYS[2], ARGV[1], qty)
+              if tonumber(ARGV[7]) > 0 then
+                redis.call('ZADD', KEYS[3], ARGV[7], ARGV[6])
+              end
+            end
+            redis.call('HSET', KEYS[2], ARGV[8], 1)
+            redis.call('EXPIRE', KEYS[2], tonumber(ARGV[5]))
             return 1
         """);
         return s;
@@ -0,0 +1,54 @@
+package com.store.controller;
+
+import com.store.hotsku.HotSkuStock;
+import com.store.reconcile.StockDriftReconciler;
+import com.store.warmup.StockWarmup;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/inventory/admin")
+@RequiredArgsConstructor
+public class InventoryAdminController {
+
+    private final StockWarmup stockWarmup;
+    // Chỉ có với engine Redis (inventory.engine=redis)
+    private final ObjectProvider<StockDriftReconciler> reconciler;
+    private final ObjectProvider<HotSkuStock> hotSku;
+
+    // Nạp lại các key stock:* còn thiếu từ DB (vd: sau khi Redis bị flush)
+    @PostMapping("/warmup")
+    public ResponseEntity<Map<String, Object>> warmUp() {
+        long loaded = stockWarmup.warmUp();
+        return ResponseEntity.ok(Map.of("loaded", loaded, "ready", stockWarmup.isReady()));
+    }
+
+    // Chạy so khớp Redis/DB ngay; trả về productId -> (redis - db) của các product đang lệch
+    @PostMapping("/reconcile")
+    public ResponseEntity<Map<String, Long>> reconcile() {
+        StockDriftReconciler r = reconciler.getIfAvailable();
+        if (r == null) return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        return ResponseEntity.ok(r.reconcile());
+    }
+
+    // Bật chế độ chia shard cho product hot (flash sale): chuyển stock:{productId} sang N shard
+    @PostMapping("/hot-sku/{productId}")
+    public ResponseEntity<Map<String, Object>> enableHotSku(@PathVariable String productId) {
+        HotSkuStock h = hotSku.getIfAvailable();
+        if (h == null) return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        return ResponseEntity.ok(Map.of("productId", productId, "hot", true, "total", h.enable(productId)));
+    }
+
+    // Tắt chế độ chia shard: gộp các shard về lại stock:{productId}
+    @DeleteMapping("/hot-sku/{productId}")
+    public ResponseEntity<Map<String, Object>> disableHotSku(@PathVariable String productId) {
+        HotSkuStock h = hotSku.getIfAvailable();
+        if (h == null) return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        return ResponseEntity.ok(Map.of("productId", productId, "hot", false, "total", h.disable(productId)));
+    }
+}
@@ -0,0 +1,41 @@
+package com.store.controller;
+
+import com.store.availability.StockAvailabilityService;
+import com.store.dto.Availability;
+import com.store.dto.AvailabilityRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/inventory")
+@RequiredArgsConstructor
+public class InventoryController {
+
+    // Chỉ có với engine Redis (inventory.engine=redis)
+    private final ObjectProvider<StockAvailabilityService> availabilityService;
+
+    // GET /api/inventory/availability?productIds=a,b,c – kiểm tra nhanh nhiều product (mỗi product cần >= 1)
+    @GetMapping("/availability")
+    public ResponseEntity<List<Availability>> availability(@RequestParam List<String> productIds) {
+        return check(productIds.stream()
+                .map(id -> AvailabilityRequest.Item.builder().productId(id).build())
+                .toList());
+    }
+
+    // POST /api/inventory/availability {items:[{productId,size,quantity}]} – pre-check giỏ hàng lúc checkout
+    @PostMapping("/availability")
+    public ResponseEntity<List<Availability>> availability(@RequestBody AvailabilityRequest req) {
+        return check(req.getItems());
+    }
+
+    private ResponseEntity<List<Availability>> check(List<AvailabilityRequest.Item> items) {
+        StockAvailabilityService service = availabilityService.getIfAvailable();
+        if (service == null) return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED).build();
+        return ResponseEntity.ok(service.check(items));
+    }
+}
@@ -0,0 +1,19 @@
+package com.store.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Availability {
+    private String productId;
+    private String size;
+    private Integer requested;
+    private long available;   // tồn còn lại trong Redis stock:{productId}
+    private boolean known;    // false nếu productId không có trong inventory
+    private boolean inStock;  // known && available >= requested (requested rỗng -> >= 1)
+}
@@ -22,6 +22,7 @@ public class OrderCreated {
     @Builder
     public static class Item {
         private String productId;
+        private String size;
         private Integer quantity;
         private BigDecimal unitPrice;
     }
@@ -11,6 +11,7 @@ import lombok.NoArgsConstructor;
 public class ReleaseStock {
     private String orderId;
     private String productId;
+    private String size;
     private int quantity;
     private String reason;
 }
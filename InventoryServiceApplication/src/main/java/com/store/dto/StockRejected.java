@@ -11,6 +11,7 @@ import lombok.NoArgsConstructor;
 public class StockRejected {
     private String orderId;
     private String productId;
+    private String size;
     private int requested;
     private String reason;
 }
\ No newline at end of file
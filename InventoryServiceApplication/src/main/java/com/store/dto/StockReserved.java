@@ -11,5 +11,6 @@ import lombok.NoArgsConstructor;
 public class StockReserved {
     private String orderId;
     private String productId;
+    private String size;
     private int quantity;
 }
\ No newline at end of file
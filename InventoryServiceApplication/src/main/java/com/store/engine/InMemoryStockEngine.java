@@ -0,0 +1,279 @@
+package com.store.engine;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.store.dto.OrderCreated;
+import com.store.idempotency.OrderIdempotencyStore;
+import com.store.model.Inventory;
+import com.store.model.OutboxEvent;
+import com.store.projection.StockProjector;
+import com.store.repository.InventoryRepository;
+import com.store.repository.OutboxRepository;
+import com.store.repository.StockLedgerRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Engine trong process cho triển khai 1 node / edge không có Redis (inventory.engine=memory).
+ * Product được chia theo hash vào các StockShard single-writer; mỗi order được tách theo shard,
+ * mỗi shard giữ hàng all-or-nothing cho phần của mình, có shard từ chối thì các shard khác hoàn lại.
+ * Bộ đếm không bền: khi khởi động nạp lại từ bảng inventory cộng các dòng outbox STOCK_RESERVED/RELEASED
+ * chưa được chiếu vào stock_ledger; idempotency inv:res/inv:rel được dựng lại từ các dòng outbox đó còn trong TTL
+ * (mọi trạng thái), để order-created/release-stock giao lại sau restart không giữ/trả hàng 2 lần.
+ * Giữ hàng có hạn (inv:holds), hot SKU, so khớp drift và /availability là tính năng của engine Redis:
+ * các bean đó không được tạo ở chế độ này nên hold luôn tắt.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "memory")
+public class InMemoryStockEngine implements StockEngine {
+
+    private static final List<String> PENDING_TYPES = List.of(StockProjector.RESERVED, StockProjector.RELEASED);
+
+    private final InventoryRepository inventoryRepository;
+    private final OutboxRepository outboxRepository;
+    private final StockLedgerRepository ledgerRepository;
+    private final OrderIdempotencyStore idempotency;
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Value("${inventory.memory-engine.shards:4}")
+    private int shardCount;
+
+    @Value("${inventory.memory-engine.ring-size:4096}")
+    private int ringSize;
+
+    @Value("${inventory.memory-engine.idle-park-nanos:50000}")
+    private long idleParkNanos;
+
+    @Value("${idempotency.order-ttl-seconds:604800}")
+    private long idemTtlSeconds;
+
+    @Value("${inventory.warmup.page-size:1000}")
+    private int pageSize;
+
+    private StockShard[] shards;
+
+    public InMemoryStockEngine(InventoryRepository inventoryRepository,
+                               OutboxRepository outboxRepository,
+                               StockLedgerRepository ledgerRepository,
+                               OrderIdempotencyStore idempotency) {
+        this.inventoryRepository = inventoryRepository;
+        this.outboxRepository = outboxRepository;
+        this.ledgerRepository = ledgerRepository;
+        this.idempotency = idempotency;
+    }
+
+    @PostConstruct
+    void start() {
+        shards = new StockShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new StockShard(i, ringSize, idemTtlSeconds * 1000, idleParkNanos);
+        }
+        log.info("[ENGINE] In-memory stock engine started with {} shards", shardCount);
+    }
+
+    @PreDestroy
+    void stop() {
+        for (StockShard s : shards) s.stop();
+    }
+
+    private int shardOf(String productId) { return Math.floorMod(productId.hashCode(), shards.length); }
+
+    /** Phần của 1 order nằm trên 1 shard. */
+    private static final class Part {
+        final StockShard shard;
+        final int[] idx;
+        final String[] productIds;
+        final int[] quantities;
+        final String[] resFields;
+        CompletableFuture<long[]> result;
+
+        Part(StockShard shard, List<Integer> idx, List<OrderCreated.Item> items, OrderIdempotencyStore idempotency) {
+            this.shard = shard;
+            this.idx = idx.stream().mapToInt(Integer::intValue).toArray();
+            this.productIds = new String[this.idx.length];
+            this.quantities = new int[this.idx.length];
+            this.resFields = new String[this.idx.length];
+            for (int i = 0; i < this.idx.length; i++) {
+                var it = items.get(this.idx[i]);
+                productIds[i] = it.getProductId();
+                quantities[i] = it.getQuantity();
+                resFields[i] = idempotency.reserveField(it.getProductId(), it.getSize());
+            }
+        }
+    }
+
+    @Override
+    public List<long[]> reserve(List<OrderLines> orders, long holdDeadline) {
+        // 1) Tách từng order theo shard và gửi hết lệnh trước, các shard chạy song song
+        List<List<Part>> partsByOrder = new ArrayList<>(orders.size());
+        for (OrderLines o : orders) {
+            Map<Integer, List<Integer>> byShard = new LinkedHashMap<>();
+            for (int i = 0; i < o.items().size(); i++) {
+                byShard.computeIfAbsent(shardOf(o.items().get(i).getProductId()), k -> new ArrayList<>()).add(i);
+            }
+            List<Part> parts = new ArrayList<>(byShard.size());
+            byShard.forEach((s, idx) -> {
+                Part p = new Part(shards[s], idx, o.items(), idempotency);
+                p.result = p.shard.submit(() -> p.shard.reserveLocal(o.orderId(), p.productIds, p.quantities, p.resFields));
+                parts.add(p);
+            });
+            partsByOrder.add(parts);
+        }
+
+        // 2) Ghép kết quả; order có shard từ chối thì hoàn lại phần đã giữ ở shard khác
+        List<long[]> results = new ArrayList<>(orders.size());
+        List<CompletableFuture<Void>> undos = new ArrayList<>();
+        for (int j = 0; j < orders.size(); j++) {
+            String orderId = orders.get(j).orderId();
+            long[] res = new long[orders.get(j).items().size()];
+            List<Part> parts = partsByOrder.get(j);
+            boolean rejected = false;
+            for (Part p : parts) {
+                long[] r = p.result.join();
+                for (int i = 0; i < p.idx.length; i++) {
+                    res[p.idx[i]] = r[i];
+                    rejected |= r[i] == 0L;
+                }
+            }
+            if (rejected && parts.size() > 1) {
+                for (Part p : parts) {
+                    long[] r = p.result.join();
+                    if (Arrays.stream(r).noneMatch(x -> x == 1L)) continue;
+                    undos.add(p.shard.submit(() -> p.shard.undoLocal(orderId, p.productIds, p.quantities, p.resFields, r)));
+                    for (int i = 0; i < p.idx.length; i++) {
+                        if (r[i] == 1L) res[p.idx[i]] = 3L;
+                    }
+                }
+            }
+            results.add(res);
+        }
+        undos.forEach(CompletableFuture::join);
+        return results;
+    }
+
+    @Override
+    public long release(String orderId, String productId, String size, int quantity) {
+        StockShard s = shards[shardOf(productId)];
+        String resField = idempotency.reserveField(productId, size);
+        String relField = idempotency.releaseField(productId, size);
+        return s.submit(() -> s.releaseLocal(orderId, productId, resField, relField, quantity)).join();
+    }
+
+    @Override
+    public void overwrite(Map<String, Integer> quantities, Collection<String> deleted) {
+        List<CompletableFuture<?>> done = new ArrayList<>();
+        quantities.forEach((id, qty) -> {
+            StockShard s = shards[shardOf(id)];
+            done.add(s.submit(() -> s.setLocal(id, qty)));
+        });
+        for (String id : deleted) {
+            StockShard s = shards[shardOf(id)];
+            done.add(s.submit(() -> s.deleteLocal(id)));
+        }
+        done.forEach(CompletableFuture::join);
+    }
+
+    /**
+     * Nạp bộ đếm từ bảng inventory (product đã có trong shard thì giữ nguyên), rồi cộng các delta
+     * STOCK_RESERVED/STOCK_RELEASED còn nằm trong outbox mà StockProjector chưa chiếu vào inventory.
+     */
+    @Override
+    public long warmUp() {
+        long started = System.currentTimeMillis();
+        Set<String> loaded = new HashSet<>();
+        String after = "";
+        while (true) {
+            List<Inventory> page = inventoryRepository.findByProductIdGreaterThanOrderByProductIdAsc(
+                    after, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) break;
+            List<CompletableFuture<Boolean>> done = new ArrayList<>(page.size());
+            for (Inventory inv : page) {
+                StockShard s = shards[shardOf(inv.getProductId())];
+                done.add(s.submit(() -> s.loadLocal(inv.getProductId(), inv.getQuantity())));
+            }
+            for (int i = 0; i < page.size(); i++) {
+                if (done.get(i).join()) loaded.add(page.get(i).getProductId());
+            }
+            after = page.get(page.size() - 1).getProductId();
+            if (page.size() < pageSize) break;
+        }
+
+        long pending = 0;
+        Long afterId = 0L;
+        while (true) {
+            List<OutboxEvent> page = outboxRepository.findByStatusAndEventTypeInAndIdGreaterThanOrderByIdAsc(
+                    "NEW", PENDING_TYPES, afterId, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) break;
+            Set<Long> projected = new HashSet<>(ledgerRepository.findExistingIds(
+                    page.stream().map(OutboxEvent::getId).toList()));
+            List<CompletableFuture<?>> done = new ArrayList<>();
+            for (OutboxEvent e : page) {
+                if (projected.contains(e.getId())) continue;
+                try {
+                    JsonNode node = om.readTree(e.getPayload());
+                    String productId = node.get("productId").asText();
+                    if (!loaded.contains(productId)) continue;
+                    int qty = node.get("quantity").asInt();
+                    int delta = StockProjector.RESERVED.equals(e.getEventType()) ? -qty : qty;
+                    StockShard s = shards[shardOf(productId)];
+                    done.add(s.submit(() -> s.addLocal(productId, delta)));
+                    pending++;
+                } catch (Exception ex) {
+                    log.warn("[WARMUP] Bỏ qua outbox id={} không đọc được payload", e.getId(), ex);
+                }
+            }
+            done.forEach(CompletableFuture::join);
+            afterId = page.get(page.size() - 1).getId();
+            if (page.size() < pageSize) break;
+        }
+        long restored = restoreIdempotency();
+        log.info("[WARMUP] Loaded {} products into memory engine (+{} pending outbox deltas, {} idempotency lines) in {} ms",
+                loaded.size(), pending, restored, System.currentTimeMillis() - started);
+        return loaded.size();
+    }
+
+    // Idempotency chỉ nằm trong heap của shard: đọc lại STOCK_RESERVED/STOCK_RELEASED tạo trong TTL theo thứ tự id
+    private long restoreIdempotency() {
+        Instant since = Instant.now().minusSeconds(idemTtlSeconds);
+        long restored = 0;
+        Long afterId = 0L;
+        while (true) {
+            List<OutboxEvent> page = outboxRepository.findByEventTypeInAndCreatedAtAfterAndIdGreaterThanOrderByIdAsc(
+                    PENDING_TYPES, since, afterId, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) break;
+            List<CompletableFuture<?>> done = new ArrayList<>(page.size());
+            for (OutboxEvent e : page) {
+                try {
+                    JsonNode node = om.readTree(e.getPayload());
+                    String orderId = node.get("orderId").asText();
+                    String productId = node.get("productId").asText();
+                    String size = node.hasNonNull("size") ? node.get("size").asText() : null;
+                    int qty = node.get("quantity").asInt();
+                    String resField = idempotency.reserveField(productId, size);
+                    String relField = StockProjector.RELEASED.equals(e.getEventType())
+                            ? idempotency.releaseField(productId, size) : null;
+                    long at = e.getCreatedAt() != null ? e.getCreatedAt().toEpochMilli() : System.currentTimeMillis();
+                    StockShard s = shards[shardOf(productId)];
+                    done.add(s.submit(() -> s.restoreIdemLocal(orderId, resField, relField, qty, at)));
+                    restored++;
+                } catch (Exception ex) {
+                    log.warn("[WARMUP] Bỏ qua outbox id={} khi dựng lại idempotency", e.getId(), ex);
+                }
+            }
+            done.forEach(CompletableFuture::join);
+            afterId = page.get(page.size() - 1).getId();
+            if (page.size() < pageSize) break;
+        }
+        return restored;
+    }
+}
@@ -0,0 +1,61 @@
+package com.store.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring buffer có giới hạn, nhiều producer / 1 consumer, không dùng lock (kiểu hàng đợi của Vyukov):
+ * mỗi ô có 1 sequence, producer CAS tail để lấy ô rồi publish bằng sequence; consumer đọc tuần tự theo head.
+ * Dung lượng phải là luỹ thừa của 2.
+ */
+final class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // chỉ thread consumer đọc/ghi
+
+    MpscRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity phải là luỹ thừa của 2: " + capacity);
+        }
+        this.items = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) sequences.set(i, i);
+    }
+
+    /** @return false nếu buffer đầy */
+    boolean offer(E e) {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(idx, e);
+                    sequences.set(idx, pos + 1); // publish cho consumer
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /** @return null nếu rỗng; chỉ được gọi từ thread consumer */
+    E poll() {
+        int idx = (int) (head & mask);
+        if (sequences.get(idx) != head + 1) return null;
+        E e = items.get(idx);
+        items.lazySet(idx, null);
+        sequences.set(idx, head + mask + 1); // trả ô cho vòng sau của producer
+        head++;
+        return e;
+    }
+}
@@ -0,0 +1,277 @@
+package com.store.engine;
+
+import com.store.dto.OrderCreated;
+import com.store.hold.ReservationHoldScheduler;
+import com.store.hotsku.HotSkuStock;
+import com.store.idempotency.OrderIdempotencyStore;
+import com.store.model.Inventory;
+import com.store.repository.InventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Engine mặc định: tồn kho ở key stock:{productId} (hoặc shard của HotSkuStock), idempotency ở hash
+ * idem:order:{orderId}, giữ/trả hàng qua reserveBatchScript/releaseScript.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "redis", matchIfMissing = true)
+public class RedisStockEngine implements StockEngine {
+
+    private final StringRedisTemplate redis;
+    private final DefaultRedisScript<List> reserveBatchScript;
+    private final DefaultRedisScript<Long> releaseScript;
+    private final InventoryRepository inventoryRepository;
+    private final OrderIdempotencyStore idempotency;
+    private final HotSkuStock hotSku;
+
+    @Value("${inventory.warmup.page-size:1000}")
+    private int pageSize;
+
+    public RedisStockEngine(StringRedisTemplate redis,
+                            @Qualifier("reserveBatchScript") DefaultRedisScript<List> reserveBatchScript,
+                            @Qualifier("releaseScript") DefaultRedisScript<Long> releaseScript,
+                            InventoryRepository inventoryRepository,
+                            OrderIdempotencyStore idempotency,
+                            HotSkuStock hotSku) {
+        this.redis = redis;
+        this.reserveBatchScript = reserveBatchScript;
+        this.releaseScript = releaseScript;
+        this.inventoryRepository = inventoryRepository;
+        this.idempotency = idempotency;
+        this.hotSku = hotSku;
+    }
+
+    /* ==================== Helpers ==================== */
+
+    private String stockKey(String productId) { return "stock:" + productId; }
+
+    // Khởi tạo Redis từ DB nếu key chưa có; trả về true nếu vừa nạp key
+    private boolean ensureRedisStockKey(String productId) {
+        String key = stockKey(productId);
+        String val = redis.opsForValue().get(key);
+        if (val == null) {
+            int dbQty = inventoryRepository.findByProductId(productId)
+                    .map(Inventory::getQuantity)
+                    .orElse(0);
+            redis.opsForValue().setIfAbsent(key, String.valueOf(dbQty));
+            log.info("[INV] Init Redis {} = {} (from DB)", key, dbQty);
+            return true;
+        }
+        return false;
+    }
+
+    // Khởi tạo Redis từ DB cho nhiều key cùng lúc: 1 MGET, chỉ hỏi DB cho key còn thiếu
+    private boolean ensureRedisStockKeys(List<String> productIds) {
+        List<String> keys = productIds.stream().map(this::stockKey).toList();
+        List<String> vals = redis.opsForValue().multiGet(keys);
+        boolean loaded = false;
+        for (int i = 0; i < keys.size(); i++) {
+            if (vals == null || vals.get(i) == null) {
+                loaded |= ensureRedisStockKey(productIds.get(i));
+            }
+        }
+        return loaded;
+    }
+
+    /* ==================== Reserve ==================== */
+
+    @Override
+    public List<long[]> reserve(List<OrderLines> orders, long holdDeadline) {
+        // Order có dòng hot giữ hàng trên shard nên không gộp chung EVAL; còn lại chạy 1 lần cho cả lô
+        long[][] results = new long[orders.size()][];
+        List<OrderLines> scripted = new ArrayList<>();
+        List<Integer> scriptedIdx = new ArrayList<>();
+        for (int j = 0; j < orders.size(); j++) {
+            OrderLines o = orders.get(j);
+            if (o.items().stream().anyMatch(it -> hotSku.isHot(it.getProductId()))) {
+                results[j] = tryReserve(o.orderId(), o.items(), holdDeadline);
+            } else {
+                scripted.add(o);
+                scriptedIdx.add(j);
+            }
+        }
+        if (!scripted.isEmpty()) {
+            List<long[]> r = reserveBatch(scripted, holdDeadline);
+            for (int j = 0; j < scripted.size(); j++) results[scriptedIdx.get(j)] = r.get(j);
+        }
+
+        for (int j = 0; j < orders.size(); j++) {
+            if (Arrays.stream(results[j]).anyMatch(r -> r == 0L)) {
+                results[j] = retryRejected(orders.get(j), results[j], holdDeadline);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    // Key đã được warm-up nên hot path không GET trước; chỉ khi bị từ chối mới kiểm tra
+    // key có bị thiếu (Redis bị flush, sản phẩm mới) hoặc product vừa bật/tắt hot rồi chạy lại 1 lần
+    private long[] retryRejected(OrderLines o, long[] res, long holdDeadline) {
+        List<String> rejectedIds = new ArrayList<>();
+        for (int i = 0; i < o.items().size(); i++) {
+            if (res[i] == 0L) rejectedIds.add(o.items().get(i).getProductId());
+        }
+        rejectedIds = rejectedIds.stream().distinct().toList();
+        boolean loaded = ensureRedisStockKeys(rejectedIds);
+        if (hotSku.refresh(rejectedIds) || loaded) {
+            return tryReserve(o.orderId(), o.items(), holdDeadline);
+        }
+        return res;
+    }
+
+    // 1 lượt giữ hàng: dòng hot lần lượt trên shard, các dòng còn lại trong 1 lần reserveBatchScript
+    private long[] tryReserve(String orderId, List<OrderCreated.Item> items, long holdDeadline) {
+        long[] res = new long[items.size()];
+        Arrays.fill(res, 3L);
+        boolean[] onShard = new boolean[items.size()];
+        List<OrderCreated.Item> normal = new ArrayList<>();
+        List<Integer> normalIdx = new ArrayList<>();
+        boolean rejected = false, hotReserved = false;
+        for (int i = 0; i < items.size(); i++) {
+            var it = items.get(i);
+            if (!hotSku.isHot(it.getProductId())) {
+                normal.add(it);
+                normalIdx.add(i);
+            } else if (!rejected) {
+                onShard[i] = true;
+                res[i] = hotSku.reserve(orderId, it.getProductId(), it.getSize(), it.getQuantity());
+                rejected = res[i] == 0L;
+                hotReserved |= res[i] == 1L;
+            }
+        }
+
+        if (!rejected && !normal.isEmpty()) {
+            long[] r = reserveBatch(List.of(new OrderLines(orderId, normal)), holdDeadline).get(0);
+            for (int j = 0; j < normal.size(); j++) {
+                res[normalIdx.get(j)] = r[j];
+                rejected |= r[j] == 0L;
+            }
+        }
+
+        if (rejected) {
+            // Hoàn lại các dòng hot đã giữ để order vẫn là all-or-nothing
+            for (int i = 0; i < items.size(); i++) {
+                var it = items.get(i);
+                if (res[i] == 1L && onShard[i]) {
+                    hotSku.unreserve(orderId, it.getProductId(), it.getSize(), it.getQuantity());
+                    res[i] = 3L;
+                }
+            }
+        } else if (hotReserved && holdDeadline > 0) {
+            redis.opsForZSet().add(ReservationHoldScheduler.HOLDS_KEY, orderId, holdDeadline);
+        }
+        return res;
+    }
+
+    /**
+     * Giữ hàng cho nhiều order trong 1 lần EVAL (reserveBatchScript), mỗi order vẫn all-or-nothing.
+     * Chỉ dùng cho các dòng không hot; trả về kết quả từng dòng theo đúng thứ tự order/dòng.
+     */
+    private List<long[]> reserveBatch(List<OrderLines> orders, long holdDeadline) {
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        args.add(idempotency.ttlArg());
+        args.add(String.valueOf(holdDeadline));
+        args.add(String.valueOf(orders.size()));
+        for (OrderLines o : orders) {
+            o.items().forEach(it -> keys.add(stockKey(it.getProductId())));
+            keys.add(idempotency.key(o.orderId()));
+            args.add(o.orderId());
+            args.add(String.valueOf(o.items().size()));
+            o.items().forEach(it -> args.add(String.valueOf(it.getQuantity())));
+            o.items().forEach(it -> args.add(idempotency.reserveField(it.getProductId(), it.getSize())));
+        }
+        keys.add(ReservationHoldScheduler.HOLDS_KEY);
+
+        List<?> raw = redis.execute(reserveBatchScript, keys, args.toArray());
+        if (raw == null || raw.size() != orders.size()) {
+            throw new IllegalStateException("reserveBatchScript trả về kết quả không hợp lệ cho " + orders.size() + " order: " + raw);
+        }
+        List<long[]> results = new ArrayList<>(orders.size());
+        for (int j = 0; j < orders.size(); j++) {
+            List<?> r = (List<?>) raw.get(j);
+            if (r == null || r.size() != orders.get(j).items().size()) {
+                throw new IllegalStateException("reserveBatchScript trả về kết quả không hợp lệ cho orderId=" + orders.get(j).orderId() + ": " + r);
+            }
+            results.add(r.stream().mapToLong(x -> ((Number) x).longValue()).toArray());
+        }
+        return results;
+    }
+
+    /* ==================== Release ==================== */
+
+    @Override
+    public long release(String orderId, String productId, String size, int quantity) {
+        var keys = List.of(stockKey(productId), idempotency.key(orderId));
+        var args = List.of(idempotency.releaseField(productId, size),
+                String.valueOf(quantity),
+                idempotency.ttlArg(),
+                idempotency.reserveField(productId, size));
+        // product hot: HotSkuStock tự tạo lại shard bị thiếu, không trả vào stock:{productId}
+        if (hotSku.isHot(productId)) return hotSku.release(orderId, productId, size, quantity);
+
+        Long res = redis.execute(releaseScript, keys, args.toArray()); // 1=OK, 0=chưa có key stock, 2=duplicate
+        if (res != null && res == 0L) {
+            ensureRedisStockKey(productId);
+            res = redis.execute(releaseScript, keys, args.toArray());
+        }
+        return res == null ? 1L : res;
+    }
+
+    /* ==================== Product sync / warm-up ==================== */
+
+    @Override
+    public void overwrite(Map<String, Integer> quantities, Collection<String> deleted) {
+        // 1 pipeline cho cả lô
+        redis.executePipelined((RedisCallback<Object>) conn -> {
+            StringRedisConnection sc = (StringRedisConnection) conn;
+            quantities.forEach((id, qty) -> {
+                if (hotSku.isHot(id)) hotSku.writeAbsolute(sc, id, qty);
+                else sc.set(stockKey(id), String.valueOf(qty));
+            });
+            if (!deleted.isEmpty()) {
+                sc.del(deleted.stream().map(this::stockKey).toArray(String[]::new));
+                deleted.stream().filter(hotSku::isHot).forEach(id -> hotSku.delete(sc, id));
+            }
+            return null;
+        });
+    }
+
+    /** Đọc inventory theo trang (keyset theo productId) và SETNX stock:* bằng pipeline; key đã có thì giữ nguyên. */
+    @Override
+    public long warmUp() {
+        long started = System.currentTimeMillis();
+        long scanned = 0, loaded = 0;
+        String after = "";
+        while (true) {
+            List<Inventory> page = inventoryRepository.findByProductIdGreaterThanOrderByProductIdAsc(
+                    after, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) break;
+
+            List<Object> results = redis.executePipelined((RedisCallback<Object>) conn -> {
+                StringRedisConnection sc = (StringRedisConnection) conn;
+                for (Inventory inv : page) {
+                    sc.setNX(stockKey(inv.getProductId()), String.valueOf(inv.getQuantity()));
+                }
+                return null;
+            });
+            loaded += results.stream().filter(Boolean.TRUE::equals).count();
+            scanned += page.size();
+            after = page.get(page.size() - 1).getProductId();
+            if (page.size() < pageSize) break;
+        }
+        log.info("[WARMUP] Scanned {} inventory rows, loaded {} Redis stock keys in {} ms",
+                scanned, loaded, System.currentTimeMillis() - started);
+        return loaded;
+    }
+}
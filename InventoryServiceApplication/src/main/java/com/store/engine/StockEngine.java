@@ -0,0 +1,35 @@
+package com.store.engine;
+
+import com.store.dto.OrderCreated;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bộ đếm tồn kho dùng cho giữ/trả hàng. Mặc định là Redis (RedisStockEngine); với triển khai 1 node
+ * không có Redis có thể chọn inventory.engine=memory (InMemoryStockEngine). Hai bên cùng ngữ nghĩa
+ * với reserveBatchScript/releaseScript: mỗi order all-or-nothing, kết quả theo dòng
+ * 1=OK, 0=insufficient, 2=duplicate, 3=aborted. Khi Redis lỗi, DegradedModeStockEngine giữ/trả hàng
+ * thẳng trên MySQL và trả 4 cho dòng thành công: inventory đã đổi sẵn nên outbox phải được đánh dấu đã chiếu.
+ */
+public interface StockEngine {
+
+    /** 1 order cần giữ hàng (các dòng đã được kiểm tra quantity > 0). */
+    record OrderLines(String orderId, List<OrderCreated.Item> items) {}
+
+    /**
+     * Giữ hàng cho cả lô order, trả về kết quả từng dòng theo đúng thứ tự order/dòng.
+     * holdDeadline > 0 thì ghi hạn giữ hàng (chỉ engine Redis hỗ trợ, xem ReservationHoldScheduler).
+     */
+    List<long[]> reserve(List<OrderLines> orders, long holdDeadline);
+
+    /** Trả hàng 1 dòng: 1=OK, 2=duplicate (đã trả trước đó hoặc không còn giữ), 4=OK trên MySQL. */
+    long release(String orderId, String productId, String size, int quantity);
+
+    /** Ghi tồn tuyệt đối và xoá product theo đồng bộ từ product-service. */
+    void overwrite(Map<String, Integer> quantities, Collection<String> deleted);
+
+    /** Nạp tồn kho khi khởi động (và khi admin gọi lại); trả về số product vừa được nạp. */
+    long warmUp();
+}
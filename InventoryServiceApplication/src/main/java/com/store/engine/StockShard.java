@@ -0,0 +1,214 @@
+package com.store.engine;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 1 phân vùng của InMemoryStockEngine: mọi trạng thái (bộ đếm int của product, idempotency theo order)
+ * chỉ được đọc/ghi bởi đúng 1 thread, lệnh được đưa vào qua MpscRingBuffer nên không cần lock.
+ * Các hàm *Local chỉ được gọi bên trong submit(...).
+ */
+@Slf4j
+final class StockShard {
+
+    /** 1 field idempotency: với inv:res là số lượng còn giữ, với inv:rel là số lượng đã trả. */
+    private static final class Idem {
+        int held;
+        long at;
+    }
+
+    private record Task<T>(Supplier<T> op, CompletableFuture<T> done) {}
+
+    private static final int SPINS_BEFORE_PARK = 1000;
+    private static final int SWEEP_EVERY_OPS = 10_000;
+
+    private final MpscRingBuffer<Task<?>> ring;
+    private final Thread worker;
+    private final long idemTtlMs;
+    private final long idleParkNanos;
+    private volatile boolean running = true;
+
+    // productId -> {quantity}
+    private final Map<String, int[]> stock = new HashMap<>();
+    // orderId|field -> idempotency
+    private final Map<String, Idem> idem = new HashMap<>();
+    private int opsSinceSweep;
+
+    StockShard(int index, int ringSize, long idemTtlMs, long idleParkNanos) {
+        this.ring = new MpscRingBuffer<>(ringSize);
+        this.idemTtlMs = idemTtlMs;
+        this.idleParkNanos = idleParkNanos;
+        this.worker = new Thread(this::run, "stock-shard-" + index);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<T> op) {
+        Task<T> t = new Task<>(op, new CompletableFuture<>());
+        while (!ring.offer(t)) {
+            if (!running) throw new IllegalStateException("StockShard đã dừng");
+            Thread.onSpinWait(); // đầy: chờ worker xả bớt
+        }
+        return t.done();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void run() {
+        int idle = 0;
+        while (running) {
+            Task task = ring.poll();
+            if (task == null) {
+                if (++idle < SPINS_BEFORE_PARK) Thread.onSpinWait();
+                else LockSupport.parkNanos(idleParkNanos);
+                continue;
+            }
+            idle = 0;
+            try {
+                task.done().complete(task.op().get());
+            } catch (Throwable e) {
+                task.done().completeExceptionally(e);
+            }
+            if (++opsSinceSweep >= SWEEP_EVERY_OPS) sweepIdem();
+        }
+    }
+
+    // Bỏ idempotency quá TTL (tương đương EXPIRE của hash idem:order:{orderId})
+    private void sweepIdem() {
+        opsSinceSweep = 0;
+        long cutoff = System.currentTimeMillis() - idemTtlMs;
+        for (Iterator<Idem> it = idem.values().iterator(); it.hasNext(); ) {
+            if (it.next().at < cutoff) it.remove();
+        }
+    }
+
+    private static String idemKey(String orderId, String field) { return orderId + "|" + field; }
+
+    /* ==================== ops (chỉ chạy trên thread của shard) ==================== */
+
+    /** Cùng logic với 1 order của reserveBatchScript, cho các dòng thuộc shard này. */
+    long[] reserveLocal(String orderId, String[] productIds, int[] quantities, String[] resFields) {
+        int n = productIds.length;
+        long[] res = new long[n];
+        Map<String, Integer> need = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (idem.containsKey(idemKey(orderId, resFields[i]))) {
+                res[i] = 2;
+            } else {
+                res[i] = 1;
+                need.merge(productIds[i], quantities[i], Integer::sum);
+            }
+        }
+        boolean failed = false;
+        for (int i = 0; i < n; i++) {
+            if (res[i] == 1) {
+                int[] s = stock.get(productIds[i]);
+                if (s == null || s[0] < need.get(productIds[i])) {
+                    res[i] = 0;
+                    failed = true;
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+            if (res[i] != 1) continue;
+            if (failed) {
+                res[i] = 3;
+                continue;
+            }
+            stock.get(productIds[i])[0] -= quantities[i];
+            Idem e = idem.computeIfAbsent(idemKey(orderId, resFields[i]), k -> new Idem());
+            e.held += quantities[i];
+            e.at = now;
+        }
+        return res;
+    }
+
+    /** Hoàn lại các dòng res == 1 khi dòng ở shard khác của cùng order bị từ chối. */
+    Void undoLocal(String orderId, String[] productIds, int[] quantities, String[] resFields, long[] res) {
+        for (int i = 0; i < productIds.length; i++) {
+            if (res[i] != 1) continue;
+            stock.computeIfAbsent(productIds[i], k -> new int[1])[0] += quantities[i];
+            String k = idemKey(orderId, resFields[i]);
+            Idem e = idem.get(k);
+            if (e != null && (e.held -= quantities[i]) <= 0) idem.remove(k);
+        }
+        return null;
+    }
+
+    /** Cùng logic với releaseScript: 1=OK, 2=duplicate. */
+    long releaseLocal(String orderId, String productId, String resField, String relField, int quantity) {
+        long now = System.currentTimeMillis();
+        String relKey = idemKey(orderId, relField);
+        if (idem.containsKey(relKey)) return 2;
+        Idem rel = new Idem();
+        rel.held = quantity;
+        rel.at = now;
+        idem.put(relKey, rel);
+
+        int qty = quantity;
+        Idem held = idem.get(idemKey(orderId, resField));
+        if (held != null) {
+            if (held.held <= 0) return 2;
+            qty = Math.min(qty, held.held);
+            held.held -= qty;
+            held.at = now;
+        }
+        stock.computeIfAbsent(productId, k -> new int[1])[0] += qty;
+        return 1;
+    }
+
+    /**
+     * Dựng lại idempotency của 1 dòng outbox khi khởi động, theo thứ tự id (giữ trước trả):
+     * STOCK_RESERVED cộng vào inv:res, STOCK_RELEASED ghi inv:rel và trừ phần còn giữ như releaseLocal.
+     * Không đụng bộ đếm tồn. relField == null là dòng giữ hàng.
+     */
+    Void restoreIdemLocal(String orderId, String resField, String relField, int quantity, long at) {
+        Idem held = idem.get(idemKey(orderId, resField));
+        if (relField == null) {
+            if (held == null) idem.put(idemKey(orderId, resField), held = new Idem());
+            held.held += quantity;
+            held.at = at;
+            return null;
+        }
+        Idem rel = new Idem();
+        rel.held = quantity;
+        rel.at = at;
+        if (idem.putIfAbsent(idemKey(orderId, relField), rel) != null) return null;
+        if (held != null && held.held > 0) {
+            held.held -= Math.min(quantity, held.held);
+            held.at = at;
+        }
+        return null;
+    }
+
+    /** Nạp tồn nếu shard chưa có product (tương đương SETNX của warm-up). */
+    boolean loadLocal(String productId, int quantity) {
+        return stock.putIfAbsent(productId, new int[]{quantity}) == null;
+    }
+
+    Void setLocal(String productId, int quantity) {
+        stock.computeIfAbsent(productId, k -> new int[1])[0] = quantity;
+        return null;
+    }
+
+    Void addLocal(String productId, int delta) {
+        stock.computeIfAbsent(productId, k -> new int[1])[0] += delta;
+        return null;
+    }
+
+    Void deleteLocal(String productId) {
+        stock.remove(productId);
+        return null;
+    }
+}
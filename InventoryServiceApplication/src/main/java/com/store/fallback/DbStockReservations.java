@@ -0,0 +1,103 @@
+package com.store.fallback;
+
+import com.store.dto.OrderCreated;
+import com.store.engine.StockEngine;
+import com.store.model.FallbackReservation;
+import com.store.repository.FallbackReservationRepository;
+import com.store.repository.InventoryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Giữ/trả hàng thẳng trên MySQL khi Redis không dùng được: UPDATE có điều kiện applyReserve/applyRelease
+ * cho từng product (theo thứ tự productId để các lô không deadlock nhau) và 1 dòng stock_fallback_reservation
+ * cho mỗi productId#size làm khoá idempotency. Chạy trong transaction của listener nên cùng commit với outbox.
+ * Kết quả giữ nguyên hợp đồng của StockEngine, riêng dòng giữ thành công trả 4 thay cho 1.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DbStockReservations {
+
+    private final InventoryRepository inventoryRepository;
+    private final FallbackReservationRepository repo;
+
+    private static String size(String size) { return size == null ? "" : size; }
+
+    private static String lineKey(String productId, String size) { return productId + "#" + size(size); }
+
+    @Transactional
+    public long[] reserve(StockEngine.OrderLines o, long holdDeadline) {
+        List<OrderCreated.Item> items = o.items();
+        long[] res = new long[items.size()];
+        Set<String> existing = new HashSet<>();
+        repo.findByOrderId(o.orderId()).forEach(f -> existing.add(lineKey(f.getProductId(), f.getSize())));
+
+        Map<String, Integer> need = new TreeMap<>();
+        Map<String, FallbackReservation> rows = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            var it = items.get(i);
+            String key = lineKey(it.getProductId(), it.getSize());
+            if (existing.contains(key)) {
+                res[i] = 2L;
+                continue;
+            }
+            res[i] = 4L;
+            need.merge(it.getProductId(), it.getQuantity(), Integer::sum);
+            FallbackReservation row = rows.computeIfAbsent(key, k -> FallbackReservation.builder()
+                    .orderId(o.orderId())
+                    .productId(it.getProductId())
+                    .size(size(it.getSize()))
+                    .quantity(0)
+                    .holdDeadline(holdDeadline)
+                    .released(false)
+                    .replayed(false)
+                    .createdAt(Instant.now())
+                    .build());
+            row.setQuantity(row.getQuantity() + it.getQuantity());
+        }
+        if (need.isEmpty()) return res;
+
+        List<String> applied = new ArrayList<>();
+        Set<String> failed = new HashSet<>();
+        need.forEach((productId, qty) -> {
+            if (inventoryRepository.applyReserve(productId, qty) == 1) applied.add(productId);
+            else failed.add(productId);
+        });
+
+        if (!failed.isEmpty()) {
+            // all-or-nothing như reserveBatchScript: hoàn lại các product đã trừ
+            applied.forEach(productId -> inventoryRepository.applyRelease(productId, need.get(productId)));
+            for (int i = 0; i < items.size(); i++) {
+                if (res[i] == 4L) res[i] = failed.contains(items.get(i).getProductId()) ? 0L : 3L;
+            }
+            return res;
+        }
+        repo.saveAll(rows.values());
+        log.info("[FALLBACK] Reserved in DB orderId={}, lines={}", o.orderId(), rows.size());
+        return res;
+    }
+
+    /**
+     * Trả 1 dòng đã giữ bằng reserve(...) và chưa replay: 4=OK, 2=duplicate.
+     * Dòng giữ trong Redis thì không trả được ở đây (không biết Redis đã trả hay chưa) -> ném lỗi để Kafka retry.
+     */
+    @Transactional
+    public long release(String orderId, String productId, String size, int quantity) {
+        FallbackReservation row = repo.findByOrderIdAndProductIdAndSize(orderId, productId, size(size))
+                .filter(f -> !f.getReplayed())
+                .orElseThrow(() -> new IllegalStateException(
+                        "Redis unavailable, cannot release line held in Redis orderId=" + orderId + ", productId=" + productId));
+        if (row.getReleased()) return 2L;
+        inventoryRepository.applyRelease(productId, Math.min(quantity, row.getQuantity()));
+        row.setReleased(true);
+        repo.save(row);
+        log.info("[FALLBACK] Released in DB orderId={}, productId={}, qty={}", orderId, productId, quantity);
+        return 4L;
+    }
+}
@@ -0,0 +1,90 @@
+package com.store.fallback;
+
+import com.store.engine.RedisStockEngine;
+import com.store.engine.StockEngine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bọc RedisStockEngine: Redis mất kết nối/timeout (hoặc breaker đang mở) thì giữ/trả hàng bằng
+ * DbStockReservations thay vì ném lỗi để record order-created bị retry mãi. Throughput thấp hơn
+ * (mỗi product 1 UPDATE) nhưng checkout không dừng hẳn. Đồng bộ product và warm-up vẫn chỉ đi Redis.
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "redis", matchIfMissing = true)
+public class DegradedModeStockEngine implements StockEngine {
+
+    private final RedisStockEngine redis;
+    private final DbStockReservations db;
+    private final RedisCircuitBreaker breaker;
+
+    @Value("${inventory.fallback.enabled:true}")
+    private boolean enabled;
+
+    public DegradedModeStockEngine(RedisStockEngine redis, DbStockReservations db, RedisCircuitBreaker breaker) {
+        this.redis = redis;
+        this.db = db;
+        this.breaker = breaker;
+    }
+
+    private static boolean redisDown(RuntimeException e) {
+        return e instanceof RedisConnectionFailureException || e instanceof QueryTimeoutException;
+    }
+
+    @Override
+    public List<long[]> reserve(List<OrderLines> orders, long holdDeadline) {
+        if (!enabled) return redis.reserve(orders, holdDeadline);
+        if (!breaker.isOpen()) {
+            try {
+                List<long[]> r = redis.reserve(orders, holdDeadline);
+                breaker.onSuccess();
+                return r;
+            } catch (RuntimeException e) {
+                if (!redisDown(e)) throw e;
+                breaker.onFailure(e);
+                log.warn("[FALLBACK] Redis reserve failed, lô {} order chuyển sang MySQL: {}", orders.size(), e.getMessage());
+            }
+        }
+        List<long[]> results = new ArrayList<>(orders.size());
+        for (OrderLines o : orders) results.add(db.reserve(o, holdDeadline));
+        return results;
+    }
+
+    @Override
+    public long release(String orderId, String productId, String size, int quantity) {
+        if (!enabled) return redis.release(orderId, productId, size, quantity);
+        if (!breaker.isOpen()) {
+            try {
+                long r = redis.release(orderId, productId, size, quantity);
+                breaker.onSuccess();
+                return r;
+            } catch (RuntimeException e) {
+                if (!redisDown(e)) throw e;
+                breaker.onFailure(e);
+            }
+        }
+        return db.release(orderId, productId, size, quantity);
+    }
+
+    @Override
+    public void overwrite(Map<String, Integer> quantities, Collection<String> deleted) {
+        redis.overwrite(quantities, deleted);
+    }
+
+    @Override
+    public long warmUp() {
+        return redis.warmUp();
+    }
+}
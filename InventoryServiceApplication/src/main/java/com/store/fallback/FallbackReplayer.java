@@ -0,0 +1,152 @@
+package com.store.fallback;
+
+import com.store.hold.ReservationHoldScheduler;
+import com.store.hotsku.HotSkuStock;
+import com.store.idempotency.OrderIdempotencyStore;
+import com.store.model.FallbackReservation;
+import com.store.repository.FallbackReservationRepository;
+import com.store.repository.InventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Đưa Redis về khớp sau khi hết degraded mode: với mỗi dòng stock_fallback_reservation chưa replay,
+ * chạy fallbackReplayScript (trừ bộ đếm, ghi field idempotency, hạn giữ hàng) rồi đánh dấu replayed.
+ * Breaker đang mở thì chỉ thử sau open-ms: PING được và replay hết mới đóng breaker.
+ * Dòng Redis báo đã giữ từ trước (order-created giao lại đúng lúc Redis lỗi) thì hoàn lại phần đã trừ ở DB.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "redis", matchIfMissing = true)
+public class FallbackReplayer {
+
+    private final StringRedisTemplate redis;
+    private final DefaultRedisScript<Long> replayScript;
+    private final FallbackReservationRepository repo;
+    private final InventoryRepository inventoryRepository;
+    private final OrderIdempotencyStore idempotency;
+    private final HotSkuStock hotSku;
+    private final RedisCircuitBreaker breaker;
+    private final ReservationHoldScheduler holds;
+    private final TransactionTemplate tx;
+
+    @Value("${inventory.fallback.replay-batch-size:500}")
+    private int batchSize;
+
+    @Value("${idempotency.order-ttl-seconds:604800}")
+    private long retentionSeconds;
+
+    public FallbackReplayer(StringRedisTemplate redis,
+                            @Qualifier("fallbackReplayScript") DefaultRedisScript<Long> replayScript,
+                            FallbackReservationRepository repo,
+                            InventoryRepository inventoryRepository,
+                            OrderIdempotencyStore idempotency,
+                            HotSkuStock hotSku,
+                            RedisCircuitBreaker breaker,
+                            @Lazy ReservationHoldScheduler holds,
+                            PlatformTransactionManager txManager) {
+        this.redis = redis;
+        this.replayScript = replayScript;
+        this.repo = repo;
+        this.inventoryRepository = inventoryRepository;
+        this.idempotency = idempotency;
+        this.hotSku = hotSku;
+        this.breaker = breaker;
+        this.holds = holds;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    // Còn dòng chưa replay từ lần chạy trước: Redis đang cao hơn thực tế, giữ hàng qua DB cho tới khi replay xong
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (repo.existsByReplayedFalse()) breaker.trip(null);
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.fallback.replay-interval-ms:2000}")
+    public void scheduled() {
+        if (breaker.isOpen() ? !breaker.probeDue() : !repo.existsByReplayedFalse()) return;
+        try {
+            redis.execute((RedisCallback<String>) conn -> conn.ping());
+            long n = replay();
+            breaker.close();
+            if (n > 0) log.info("[FALLBACK] Replayed {} DB reservations into Redis", n);
+        } catch (Exception e) {
+            if (breaker.isOpen()) {
+                breaker.trip(e); // hẹn probe lần sau
+                log.warn("[FALLBACK] Redis vẫn lỗi, giữ degraded mode: {}", e.getMessage());
+            } else {
+                log.error("[FALLBACK] Replay failed", e);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.fallback.cleanup-interval-ms:3600000}")
+    public void cleanup() {
+        int n = repo.deleteReplayedBefore(Instant.now().minusSeconds(retentionSeconds));
+        if (n > 0) log.info("[FALLBACK] Deleted {} replayed rows", n);
+    }
+
+    /** Replay các dòng chưa replay theo trang (keyset theo id); trả về số dòng đã xử lý. */
+    public synchronized long replay() {
+        long done = 0;
+        Long after = 0L;
+        while (true) {
+            List<FallbackReservation> page = repo.findByReplayedFalseAndIdGreaterThanOrderByIdAsc(
+                    after, PageRequest.of(0, batchSize));
+            if (page.isEmpty()) break;
+            for (FallbackReservation row : page) {
+                replayOne(row);
+                done++;
+            }
+            after = page.get(page.size() - 1).getId();
+            if (page.size() < batchSize) break;
+        }
+        return done;
+    }
+
+    private void replayOne(FallbackReservation row) {
+        String productId = row.getProductId();
+        String size = row.getSize().isEmpty() ? null : row.getSize();
+        boolean released = row.getReleased();
+        long deadline = row.getHoldDeadline() == null ? 0L : row.getHoldDeadline();
+        String key = hotSku.isHot(productId) ? hotSku.anyShardKey(productId) : "stock:" + productId;
+
+        Long r = redis.execute(replayScript,
+                List.of(key, idempotency.key(row.getOrderId()), ReservationHoldScheduler.HOLDS_KEY),
+                idempotency.reserveField(productId, size),
+                idempotency.releaseField(productId, size),
+                String.valueOf(row.getQuantity()),
+                released ? "1" : "0",
+                idempotency.ttlArg(),
+                row.getOrderId(),
+                String.valueOf(deadline),
+                idempotency.replayField(productId, size));
+
+        tx.executeWithoutResult(status -> {
+            if (r != null && r == 2L && !released) {
+                inventoryRepository.applyRelease(productId, row.getQuantity());
+                log.warn("[FALLBACK] orderId={} productId={} đã được giữ trong Redis, hoàn lại {} ở DB",
+                        row.getOrderId(), productId, row.getQuantity());
+            }
+            row.setReplayed(true);
+            repo.save(row);
+        });
+        if (r != null && r == 1L && !released) holds.schedule(row.getOrderId(), deadline);
+    }
+}
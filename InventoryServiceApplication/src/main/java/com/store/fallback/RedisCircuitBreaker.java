@@ -0,0 +1,67 @@
+package com.store.fallback;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker cho đường giữ hàng qua Redis. Lỗi kết nối/timeout liên tiếp quá failure-threshold thì mở:
+ * giữ hàng đi thẳng vào MySQL (DbStockReservations) mà không phải chờ Redis timeout cho từng lô.
+ * Không tự đóng theo thời gian: sau open-ms, FallbackReplayer PING Redis, replay các dòng giữ ở DB
+ * rồi mới đóng, để Redis không nhận giữ hàng khi bộ đếm còn cao hơn thực tế.
+ */
+@Slf4j
+@Component
+public class RedisCircuitBreaker {
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger openGauge = new AtomicInteger();
+    private volatile boolean open = false;
+    private volatile long openedAt;
+
+    @Value("${inventory.fallback.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${inventory.fallback.open-ms:5000}")
+    private long openMs;
+
+    public RedisCircuitBreaker(MeterRegistry registry) {
+        registry.gauge("inventory.redis.breaker.open", openGauge);
+    }
+
+    public boolean isOpen() { return open; }
+
+    /** Đã mở đủ open-ms, tới lúc thử lại Redis. */
+    public boolean probeDue() {
+        return open && System.currentTimeMillis() - openedAt >= openMs;
+    }
+
+    public void onSuccess() {
+        failures.set(0);
+    }
+
+    public void onFailure(Exception e) {
+        if (failures.incrementAndGet() >= failureThreshold) trip(e);
+    }
+
+    /** Mở ngay (vd. còn dòng giữ ở DB chưa replay) hoặc sau khi probe thất bại. */
+    public synchronized void trip(Exception cause) {
+        openedAt = System.currentTimeMillis();
+        if (open) return;
+        open = true;
+        openGauge.set(1);
+        log.warn("[BREAKER] Redis circuit OPEN, giữ hàng chuyển sang MySQL: {}",
+                cause == null ? "pending fallback rows" : cause.getMessage());
+    }
+
+    public synchronized void close() {
+        failures.set(0);
+        if (!open) return;
+        open = false;
+        openGauge.set(0);
+        log.info("[BREAKER] Redis circuit CLOSED");
+    }
+}
@@ -0,0 +1,236 @@
+package com.store.hold;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.store.idempotency.OrderIdempotencyStore;
+import com.store.model.OutboxEvent;
+import com.store.repository.OutboxRepository;
+import com.store.service.InventoryListener;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hạn giữ hàng cho order đã reserve: hết hạn mà chưa thanh toán thì tự trả hàng về stock:* qua releaseScript
+ * và phát STOCK_HOLD_EXPIRED để order-service huỷ order.
+ * Hạn được ghi bền trong sorted set inv:holds (score = deadline, cùng lần EVAL với reserveBatchScript);
+ * trong process dùng TimingWheel nên không phải quét định kỳ toàn bộ order. Order được "claim" bằng ZREM,
+ * nên nhiều instance cùng có entry trong wheel cũng chỉ 1 instance trả hàng; hold do instance khác tạo
+ * (hoặc còn sót sau restart) được sweep định kỳ nhặt lại.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "redis", matchIfMissing = true)
+public class ReservationHoldScheduler {
+
+    public static final String HOLDS_KEY = "inv:holds";
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    private final StringRedisTemplate redis;
+    private final InventoryListener listener;
+    private final OrderIdempotencyStore idempotency;
+    private final OutboxRepository outboxRepo;
+    private final TransactionTemplate tx;
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Value("${inventory.hold.enabled:true}")
+    private boolean enabled;
+
+    @Value("${inventory.hold.ttl-ms:900000}")
+    private long ttlMs;
+
+    @Value("${inventory.hold.tick-ms:100}")
+    private long tickMs;
+
+    @Value("${inventory.hold.sweep-batch-size:200}")
+    private int sweepBatchSize;
+
+    private TimingWheel<String> wheel;
+    private ScheduledExecutorService ticker;
+
+    public ReservationHoldScheduler(StringRedisTemplate redis,
+                                    InventoryListener listener,
+                                    OrderIdempotencyStore idempotency,
+                                    OutboxRepository outboxRepo,
+                                    PlatformTransactionManager txManager) {
+        this.redis = redis;
+        this.listener = listener;
+        this.idempotency = idempotency;
+        this.outboxRepo = outboxRepo;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    /** Deadline (epoch ms) cho hold mới, 0 nếu tắt tính năng giữ có hạn. */
+    public long newDeadline() {
+        return enabled ? System.currentTimeMillis() + ttlMs : 0L;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) return;
+        synchronized (this) {
+            wheel = new TimingWheel<>(tickMs, WHEEL_SIZE, System.currentTimeMillis());
+        }
+        try {
+            load();
+        } catch (Exception e) {
+            // Redis lỗi lúc khởi động: sweep sẽ nhặt các hold tới hạn
+            log.error("[HOLD] Load holds from {} failed", HOLDS_KEY, e);
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("hold-wheel-"));
+        ticker.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) ticker.shutdownNow();
+    }
+
+    /** Đưa hold vừa ghi vào inv:holds lên wheel của instance này. */
+    public void schedule(String orderId, long deadlineMs) {
+        if (deadlineMs <= 0) return;
+        boolean due;
+        synchronized (this) {
+            // wheel chưa khởi tạo: hold vẫn nằm trong inv:holds, sweep sẽ xử lý
+            due = wheel != null && !wheel.add(new TimingWheel.Entry<>(orderId, deadlineMs));
+        }
+        if (due) expire(orderId);
+    }
+
+    // Nạp các hold chưa tới hạn (theo trang) – hold đã quá hạn để sweep xử lý
+    private void load() {
+        long now = System.currentTimeMillis();
+        long loaded = 0;
+        for (long offset = 0; ; offset += LOAD_PAGE_SIZE) {
+            var page = redis.opsForZSet().rangeByScoreWithScores(HOLDS_KEY, now, Double.POSITIVE_INFINITY, offset, LOAD_PAGE_SIZE);
+            if (page == null || page.isEmpty()) break;
+            synchronized (this) {
+                for (var t : page) {
+                    if (wheel.add(new TimingWheel.Entry<>(t.getValue(), t.getScore().longValue()))) loaded++;
+                }
+            }
+            if (page.size() < LOAD_PAGE_SIZE) break;
+        }
+        log.info("[HOLD] Loaded {} pending holds from {}", loaded, HOLDS_KEY);
+    }
+
+    private void tick() {
+        List<TimingWheel.Entry<String>> due = new ArrayList<>();
+        synchronized (this) {
+            wheel.advance(System.currentTimeMillis(), due);
+        }
+        for (var e : due) {
+            try {
+                expire(e.value());
+            } catch (Exception ex) {
+                // không để exception làm dừng scheduleAtFixedRate; hold còn trong inv:holds cho sweep
+                log.error("[HOLD] Expire failed orderId={}", e.value(), ex);
+            }
+        }
+    }
+
+    /** Lưới an toàn: hold tới hạn mà wheel của instance này không có (tạo ở instance khác, restart...). */
+    @Scheduled(fixedDelayString = "${inventory.hold.sweep-interval-ms:30000}",
+            initialDelayString = "${inventory.hold.sweep-interval-ms:30000}")
+    public void sweep() {
+        if (!enabled) return;
+        try {
+            Set<String> due = redis.opsForZSet().rangeByScore(HOLDS_KEY, 0, System.currentTimeMillis(), 0, sweepBatchSize);
+            if (due != null) due.forEach(this::expire);
+        } catch (Exception e) {
+            log.error("[HOLD] Sweep failed", e);
+        }
+    }
+
+    /**
+     * Trả hàng cho các dòng còn đang giữ của order. ZREM là bước claim: instance nào xoá được member
+     * mới xử lý; payment.succeeded đã xoá trước thì entry trong wheel chỉ còn là no-op.
+     */
+    private void expire(String orderId) {
+        Long claimed = redis.opsForZSet().remove(HOLDS_KEY, orderId);
+        if (claimed == null || claimed == 0L) return;
+
+        try {
+            Map<Object, Object> fields = redis.opsForHash().entries(idempotency.key(orderId));
+            List<Map<String, Object>> lines = new ArrayList<>();
+            tx.executeWithoutResult(status -> {
+                fields.forEach((k, v) -> {
+                    String field = (String) k;
+                    if (!idempotency.isReserveField(field)) return;
+                    int held = Integer.parseInt((String) v);
+                    if (held <= 0) return;
+                    String[] line = idempotency.parseReserveField(field);
+                    if (listener.releaseLine(orderId, line[0], line[1], held)) {
+                        Map<String, Object> l = new HashMap<>();
+                        l.put("productId", line[0]);
+                        l.put("size", line[1]);
+                        l.put("quantity", held);
+                        lines.add(l);
+                    }
+                });
+                try {
+                    outboxRepo.save(OutboxEvent.builder()
+                            .aggregateType("order")
+                            .aggregateId(orderId)
+                            .eventType("STOCK_HOLD_EXPIRED")
+                            .payload(om.writeValueAsString(Map.of(
+                                    "orderId", orderId,
+                                    "reason", "HOLD_EXPIRED",
+                                    "lines", lines)))
+                            .status("NEW")
+                            .build());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            log.info("[HOLD] Expired hold orderId={}, released lines={}", orderId, lines.size());
+        } catch (Exception e) {
+            // Trả lại hold để sweep thử lại; releaseScript idempotent nên dòng đã trả không bị cộng 2 lần
+            redis.opsForZSet().add(HOLDS_KEY, orderId, System.currentTimeMillis());
+            log.error("[HOLD] Expire hold failed orderId={}", orderId, e);
+        }
+    }
+
+    @KafkaListener(
+            topics = "payment.succeeded",
+            groupId = "inventory-hold-group",
+            containerFactory = "productCreatedStringFactory" // dùng StringDeserializer
+    )
+    public void onPaymentSucceeded(String message) {
+        try {
+            // Nếu payload bị bọc thêm lớp quote (\"...\"), bỏ bọc trước khi parse
+            String json = (message != null && !message.isEmpty() && message.charAt(0) == '"')
+                    ? om.readValue(message, String.class)
+                    : message;
+            JsonNode node = om.readTree(json);
+            String orderId = node.path("orderId").asText(null);
+            if (orderId == null || orderId.isBlank()) {
+                log.warn("[HOLD] payment.succeeded thiếu orderId: {}", message);
+                return;
+            }
+            // Chỉ xoá khỏi inv:holds; entry trong wheel tới hạn sẽ ZREM ra 0 và bị bỏ qua
+            Long removed = redis.opsForZSet().remove(HOLDS_KEY, orderId);
+            log.info("[HOLD] Payment succeeded orderId={}, hold removed={}", orderId, removed);
+        } catch (Exception e) {
+            log.error("[HOLD] Failed to process payment.succeeded, payload={}", message, e);
+            throw new RuntimeException(e);
+        }
+    }
+}
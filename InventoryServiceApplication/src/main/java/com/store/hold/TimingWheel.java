@@ -0,0 +1,66 @@
+package com.store.hold;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing wheel phân cấp (kiểu Kafka/Netty): tầng thấp nhất có wheelSize ô, mỗi ô rộng tickMs;
+ * deadline vượt quá tầm của tầng hiện tại được đẩy lên tầng overflow có tick = interval của tầng dưới,
+ * và được hạ dần xuống khi đồng hồ tiến tới. Thêm/huỷ là O(1), không phải quét toàn bộ hold.
+ * Không thread-safe: caller tự đồng bộ.
+ */
+class TimingWheel<T> {
+
+    record Entry<T>(T value, long deadlineMs) {}
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long interval;
+    private final List<List<Entry<T>>> buckets;
+    private long currentTime;
+    private TimingWheel<T> overflow;
+
+    TimingWheel(long tickMs, int wheelSize, long startMs) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.interval = tickMs * wheelSize;
+        this.currentTime = startMs - (startMs % tickMs);
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) buckets.add(new ArrayList<>());
+    }
+
+    /** @return false nếu entry đã tới hạn (trong tick hiện tại) – caller xử lý ngay */
+    boolean add(Entry<T> e) {
+        long deadline = e.deadlineMs();
+        if (deadline < currentTime + tickMs) return false;
+        if (deadline < currentTime + interval) {
+            buckets.get((int) ((deadline / tickMs) % wheelSize)).add(e);
+            return true;
+        }
+        if (overflow == null) overflow = new TimingWheel<>(interval, wheelSize, currentTime);
+        return overflow.add(e);
+    }
+
+    /** Tiến đồng hồ tới now, đưa các entry đã tới hạn vào due. */
+    void advance(long now, List<Entry<T>> due) {
+        while (currentTime + tickMs <= now) {
+            currentTime += tickMs;
+            int idx = (int) ((currentTime / tickMs) % wheelSize);
+            List<Entry<T>> bucket = buckets.get(idx);
+            if (!bucket.isEmpty()) {
+                buckets.set(idx, new ArrayList<>());
+                for (Entry<T> e : bucket) {
+                    if (!add(e)) due.add(e);
+                }
+            }
+            if (overflow != null) {
+                // ô của tầng trên tới hạn -> hạ entry xuống tầng này (hoặc tới hạn luôn)
+                List<Entry<T>> cascaded = new ArrayList<>();
+                overflow.advance(currentTime, cascaded);
+                for (Entry<T> e : cascaded) {
+                    if (!add(e)) due.add(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.store.hotsku;
+
+import com.store.idempotency.OrderIdempotencyStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bộ đếm tồn kho chia shard cho sản phẩm "hot" (flash sale), bật/tắt theo từng productId.
+ * Tồn của product hot nằm ở N key stock-shard:{productId}:{i} thay vì 1 key stock:{productId} (giữ = 0),
+ * nên các lượt giữ hàng đồng thời rải ra nhiều key. Giữ hàng: thử 1 shard ngẫu nhiên, lần lượt sang shard khác,
+ * tất cả đều cạn thì gom hàng về 1 shard (hotSkuRebalanceScript) rồi thử lại. Kết quả giữ nguyên hợp đồng
+ * của reserveScript/releaseScript: 1=OK, 0=insufficient, 2=duplicate.
+ * Danh sách product hot nằm trong set inv:hot-skus, mỗi instance cache lại và làm mới định kỳ.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "redis", matchIfMissing = true)
+public class HotSkuStock {
+
+    public static final String HOT_SET_KEY = "inv:hot-skus";
+
+    private final StringRedisTemplate redis;
+    private final OrderIdempotencyStore idempotency;
+    private final DefaultRedisScript<Long> reserveScript;
+    private final DefaultRedisScript<Long> releaseScript;
+    private final DefaultRedisScript<Long> unreserveScript;
+    private final DefaultRedisScript<Long> rebalanceScript;
+    private final DefaultRedisScript<Long> enableScript;
+    private final DefaultRedisScript<Long> disableScript;
+
+    @Value("${inventory.hot-sku.shards:8}")
+    private int shards;
+
+    private volatile Set<String> hot = Set.of();
+
+    public HotSkuStock(StringRedisTemplate redis,
+                       OrderIdempotencyStore idempotency,
+                       @Qualifier("reserveScript") DefaultRedisScript<Long> reserveScript,
+                       @Qualifier("releaseScript") DefaultRedisScript<Long> releaseScript,
+                       @Qualifier("unreserveScript") DefaultRedisScript<Long> unreserveScript,
+                       @Qualifier("hotSkuRebalanceScript") DefaultRedisScript<Long> rebalanceScript,
+                       @Qualifier("hotSkuEnableScript") DefaultRedisScript<Long> enableScript,
+                       @Qualifier("hotSkuDisableScript") DefaultRedisScript<Long> disableScript) {
+        this.redis = redis;
+        this.idempotency = idempotency;
+        this.reserveScript = reserveScript;
+        this.releaseScript = releaseScript;
+        this.unreserveScript = unreserveScript;
+        this.rebalanceScript = rebalanceScript;
+        this.enableScript = enableScript;
+        this.disableScript = disableScript;
+    }
+
+    private String stockKey(String productId) { return "stock:" + productId; }
+
+    private String shardKey(String productId, int i) { return "stock-shard:" + productId + ":" + i; }
+
+    private List<String> shardKeys(String productId) {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) keys.add(shardKey(productId, i));
+        return keys;
+    }
+
+    // Bắt đầu từ 1 shard ngẫu nhiên rồi đi vòng, để các request đồng thời không dồn vào cùng 1 key
+    private List<String> shardKeysFromRandom(String productId) {
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) keys.add(shardKey(productId, (start + i) % shards));
+        return keys;
+    }
+
+    public boolean isHot(String productId) { return hot.contains(productId); }
+
+    /** 1 shard ngẫu nhiên của product hot (dùng cho các thao tác cộng/trừ không cần chọn shard đủ hàng). */
+    public String anyShardKey(String productId) {
+        return shardKey(productId, ThreadLocalRandom.current().nextInt(shards));
+    }
+
+    /** Đọc lại inv:hot-skus; trả về true nếu có productId nào trong danh sách đổi trạng thái hot. */
+    public boolean refresh(Collection<String> productIds) {
+        Set<String> before = hot;
+        refresh();
+        return productIds.stream().anyMatch(id -> before.contains(id) != hot.contains(id));
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.hot-sku.refresh-ms:5000}")
+    public void refresh() {
+        try {
+            Set<String> members = redis.opsForSet().members(HOT_SET_KEY);
+            hot = members == null ? Set.of() : Set.copyOf(members);
+        } catch (Exception e) {
+            log.error("[HOT-SKU] Refresh {} failed", HOT_SET_KEY, e);
+        }
+    }
+
+    /** Giữ 1 dòng trên shard: 1=OK, 0=insufficient, 2=duplicate. */
+    public long reserve(String orderId, String productId, String size, int quantity) {
+        String idemKey = idempotency.key(orderId);
+        Object[] args = {idempotency.reserveField(productId, size), String.valueOf(quantity), idempotency.ttlArg()};
+        List<String> order = shardKeysFromRandom(productId);
+        for (String shard : order) {
+            Long r = redis.execute(reserveScript, List.of(shard, idemKey), args);
+            if (r != null && r != 0L) return r;
+        }
+        // Không shard nào đủ riêng lẻ: gom hàng về shard đầu tiên đã thử (nếu tổng đủ) rồi thử lại đúng shard đó
+        Long total = redis.execute(rebalanceScript, order, String.valueOf(quantity));
+        if (total == null || total < quantity) return 0L;
+        log.info("[HOT-SKU] Rebalanced productId={} total={} for need={}", productId, total, quantity);
+        Long r = redis.execute(reserveScript, List.of(order.get(0), idemKey), args);
+        return r == null ? 0L : r;
+    }
+
+    /** Hoàn lại dòng đã giữ bằng reserve(...) khi cả order bị từ chối. */
+    public void unreserve(String orderId, String productId, String size, int quantity) {
+        String shard = shardKey(productId, ThreadLocalRandom.current().nextInt(shards));
+        redis.execute(unreserveScript, List.of(shard, idempotency.key(orderId)),
+                idempotency.reserveField(productId, size), String.valueOf(quantity));
+    }
+
+    /**
+     * Trả hàng vào 1 shard ngẫu nhiên qua releaseScript: 1=OK, 2=duplicate.
+     * Shard chưa có key (Redis bị flush/evict) thì tạo lại bằng SETNX 0 rồi trả vào đúng shard đó,
+     * không rơi về stock:{productId} vì giữ hàng của product hot không đọc key đó.
+     */
+    public long release(String orderId, String productId, String size, int quantity) {
+        String shard = shardKey(productId, ThreadLocalRandom.current().nextInt(shards));
+        Long r = releaseOn(shard, orderId, productId, size, quantity);
+        if (r == null || r == 0L) {
+            redis.opsForValue().setIfAbsent(shard, "0");
+            log.warn("[HOT-SKU] Recreated missing {} to release orderId={}", shard, orderId);
+            r = releaseOn(shard, orderId, productId, size, quantity);
+        }
+        return r == null ? 1L : r;
+    }
+
+    private Long releaseOn(String shard, String orderId, String productId, String size, int quantity) {
+        return redis.execute(releaseScript, List.of(shard, idempotency.key(orderId)),
+                idempotency.releaseField(productId, size),
+                String.valueOf(quantity),
+                idempotency.ttlArg(),
+                idempotency.reserveField(productId, size));
+    }
+
+    /** Tổng tồn của các shard (stock:{productId} của product hot luôn là 0). */
+    public long total(String productId) {
+        List<String> vals = redis.opsForValue().multiGet(shardKeys(productId));
+        long sum = 0;
+        if (vals != null) {
+            for (String v : vals) if (v != null) sum += Long.parseLong(v);
+        }
+        return sum;
+    }
+
+    public long enable(String productId) {
+        List<String> keys = new ArrayList<>(shards + 2);
+        keys.add(stockKey(productId));
+        keys.add(HOT_SET_KEY);
+        keys.addAll(shardKeys(productId));
+        Long total = redis.execute(enableScript, keys, productId);
+        refresh();
+        log.info("[HOT-SKU] Enabled productId={} shards={} total={}", productId, shards, total);
+        return total == null ? 0L : total;
+    }
+
+    public long disable(String productId) {
+        List<String> keys = new ArrayList<>(shards + 2);
+        keys.add(stockKey(productId));
+        keys.add(HOT_SET_KEY);
+        keys.addAll(shardKeys(productId));
+        Long total = redis.execute(disableScript, keys, productId);
+        refresh();
+        log.info("[HOT-SKU] Disabled productId={} total={}", productId, total);
+        return total == null ? 0L : total;
+    }
+
+    /** Ghi tồn tuyệt đối (đồng bộ từ product-service) trong pipeline: chia đều vào shard, stock:{productId} = 0. */
+    public void writeAbsolute(StringRedisConnection sc, String productId, int quantity) {
+        int share = quantity / shards, extra = quantity % shards;
+        for (int i = 0; i < shards; i++) {
+            sc.set(shardKey(productId, i), String.valueOf(share + (i < extra ? 1 : 0)));
+        }
+        sc.set(stockKey(productId), "0");
+    }
+
+    /** Xoá shard khi product bị xoá (trong pipeline). */
+    public void delete(StringRedisConnection sc, String productId) {
+        sc.del(shardKeys(productId).toArray(String[]::new));
+        sc.sRem(HOT_SET_KEY, productId);
+    }
+}
@@ -0,0 +1,48 @@
+package com.store.idempotency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Khoá idempotency gọn theo order: 1 Redis hash idem:order:{orderId} cho mỗi order, mỗi dòng là 1 field,
+ * 1 TTL chung cho cả hash. Dùng chung key với product-service (ProductStockSyncListener), mỗi bên
+ * một tiền tố field: inv:res / inv:rel ở đây (theo productId#size), prod:res / prod:rel bên product.
+ * Hash nhỏ được Redis lưu dạng listpack nên rẻ hơn nhiều so với 1 string key + TTL cho từng dòng.
+ * Việc ghi/đọc field nằm trong các Lua script của RedisConfig để giữ nguyên tính nguyên tử.
+ */
+@Component
+public class OrderIdempotencyStore {
+
+    private static final String RESERVE_PREFIX = "inv:res:";
+
+    @Value("${idempotency.order-ttl-seconds:604800}")
+    private long ttlSeconds;
+
+    public String key(String orderId) { return "idem:order:" + orderId; }
+
+    // Giá trị field inv:res = số lượng còn đang giữ của dòng (giảm dần khi release)
+    public String reserveField(String productId, String size) {
+        return RESERVE_PREFIX + productId + "#" + (size == null ? "" : size);
+    }
+
+    public String releaseField(String productId, String size) {
+        return "inv:rel:" + productId + "#" + (size == null ? "" : size);
+    }
+
+    // Đánh dấu dòng giữ ở MySQL lúc Redis lỗi đã được replay vào Redis (FallbackReplayer)
+    public String replayField(String productId, String size) {
+        return "inv:fb:" + productId + "#" + (size == null ? "" : size);
+    }
+
+    public boolean isReserveField(String field) { return field.startsWith(RESERVE_PREFIX); }
+
+    /** Tách field inv:res:{productId}#{size} thành [productId, size] (size rỗng -> null). */
+    public String[] parseReserveField(String field) {
+        String rest = field.substring(RESERVE_PREFIX.length());
+        int i = rest.lastIndexOf('#');
+        String size = rest.substring(i + 1);
+        return new String[]{rest.substring(0, i), size.isEmpty() ? null : size};
+    }
+
+    public String ttlArg() { return String.valueOf(ttlSeconds); }
+}
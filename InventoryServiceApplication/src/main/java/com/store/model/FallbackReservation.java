@@ -0,0 +1,42 @@
+package com.store.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * 1 dòng giữ hàng được trừ thẳng vào bảng inventory khi Redis không dùng được (degraded mode).
+ * Vừa là khoá idempotency phía DB (order_id + product_id + size), vừa là hàng đợi để FallbackReplayer
+ * đưa Redis về khớp khi Redis sống lại.
+ */
+@Entity
+@Table(name = "stock_fallback_reservation",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"order_id", "product_id", "size"}),
+        indexes = @Index(name = "idx_fallback_replayed_id", columnList = "replayed,id"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FallbackReservation {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "order_id", nullable = false)
+    private String orderId;
+    @Column(name = "product_id", nullable = false, length = 64)
+    private String productId;
+    // "" thay cho null để unique constraint có tác dụng
+    @Column(name = "size", nullable = false)
+    private String size;
+    private Integer quantity;
+    // hạn giữ hàng (epoch ms, 0 = không giữ có hạn), replay ghi vào inv:holds
+    private Long holdDeadline;
+    // đã trả hàng trong lúc Redis vẫn lỗi
+    private Boolean released;
+    // đã đưa vào Redis
+    private Boolean replayed;
+    private Instant createdAt;
+}
@@ -0,0 +1,28 @@
+package com.store.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * 1 dòng duy nhất (id = 1): mọi outbox id <= watermark đã được chiếu và ledger của chúng đã nén vào stock_snapshot.
+ * candidate là max outbox id thấy ở lần nén trước; watermark chỉ được tiến tới đó, để transaction ghi outbox
+ * đang chạy dở (id đã cấp nhưng chưa commit) không bị vượt qua.
+ */
+@Entity
+@Table(name = "stock_ledger_checkpoint")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LedgerCheckpoint {
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+    private Long watermark;
+    private Long candidate;
+    private Instant compactedAt;
+}
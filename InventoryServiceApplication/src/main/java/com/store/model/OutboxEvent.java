@@ -3,8 +3,14 @@ package com.store.model;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.Instant;
+
 @Entity
-@Table(name = "outbox_event")
+@Table(name = "outbox_event", indexes = {
+        @Index(name = "idx_outbox_status_id", columnList = "status,id"),
+        @Index(name = "idx_outbox_type_created", columnList = "event_type,created_at"),
+        @Index(name = "idx_outbox_aggregate_type", columnList = "aggregate_id,event_type")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -23,4 +29,18 @@ public class OutboxEvent {
     private String status;
     @Lob
     private String lastError;
+    // Số lần publish thất bại và thời điểm được thử lại (null = gửi ngay)
+    private Integer attempts;
+    private Instant nextAttemptAt;
+    // Lease của worker relay đang gửi dòng này; hết hạn thì worker khác được claim lại
+    private Instant claimedUntil;
+    // Engine memory dựng lại idempotency inv:res/inv:rel từ các dòng còn trong TTL.
+    // Default ở DB cho các INSERT không qua JPA; dòng cũ nhận thời điểm thêm cột
+    @Column(name = "created_at", nullable = false, columnDefinition = "DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)")
+    private Instant createdAt;
+
+    @PrePersist
+    void prePersist() {
+        if (createdAt == null) createdAt = Instant.now();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package com.store.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Tổng cộng dồn các dòng stock_ledger đã được nén của 1 product, tính tới outbox id = watermark.
+ * Các dòng ledger <= watermark đã bị xoá; lịch sử chi tiết chỉ còn ở outbox_event.
+ */
+@Entity
+@Table(name = "stock_snapshot")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StockSnapshot {
+    @Id
+    @Column(name = "product_id", nullable = false, length = 64)
+    private String productId;
+
+    private Long reservedTotal;
+    private Long releasedTotal;
+    private Long events;
+    private Long watermark;
+    private Instant updatedAt;
+}
@@ -1,75 +1,250 @@
 package com.store.outbox;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.store.dto.StockRejected;
 import com.store.dto.StockReserved;
+import com.store.model.OutboxEvent;
+import com.store.projection.StockProjector;
 import com.store.repository.OutboxRepository;
-import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * Relay outbox -> Kafka chạy bằng nhiều worker. Mỗi worker claim 1 lô bằng SELECT ... FOR UPDATE SKIP LOCKED
+ * rồi ghi lease claimed_until và chiếu delta vào inventory trong 1 transaction ngắn, nên nhiều thread/instance
+ * cùng xả bảng mà không đụng nhau. Chờ ack nằm ngoài transaction (không giữ khoá dòng inventory/outbox),
+ * kết quả được ghi bằng transaction ngắn thứ 2; worker chết giữa chừng thì dòng được claim lại khi hết lease.
+ * Lô đầy nghĩa là còn backlog -> claim tiếp ngay; chỉ nghỉ idle-delay khi bảng đã gần cạn.
+ * Cả lô được gửi bất đồng bộ (producer tự gom batch), chỉ dòng đã có ack mới được đánh dấu SENT.
+ * Key của message là aggregateId (orderId, hoặc productId với PRODUCT_STOCK_DECREASED) để event
+ * của cùng order vào cùng partition.
+ */
 @Slf4j
 @Component
 @EnableScheduling
-@RequiredArgsConstructor
 public class OutboxRelay {
 
     private final OutboxRepository repo;
     private final KafkaTemplate<String, Object> kafka;
     private final ObjectMapper om = new ObjectMapper();
-    private final com.store.projection.StockProjector projector;
+    private final StockProjector projector;
+    private final TransactionTemplate tx;
+
+    @Value("${inventory.outbox.workers:4}")
+    private int workers;
+
+    @Value("${inventory.outbox.batch-size:100}")
+    private int batchSize;
+
+    @Value("${inventory.outbox.idle-delay-ms:500}")
+    private long idleDelayMs;
+
+    @Value("${inventory.outbox.send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    @Value("${inventory.outbox.claim-lease-ms:30000}")
+    private long claimLeaseMs;
+
+    @Value("${inventory.outbox.retry-base-ms:1000}")
+    private long retryBaseMs;
+
+    @Value("${inventory.outbox.retry-max-ms:60000}")
+    private long retryMaxMs;
+
+    private ExecutorService pool;
+    private volatile boolean running;
+
+    public OutboxRelay(OutboxRepository repo,
+                       KafkaTemplate<String, Object> kafka,
+                       StockProjector projector,
+                       PlatformTransactionManager txManager) {
+        this.repo = repo;
+        this.kafka = kafka;
+        this.projector = projector;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        pool = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("outbox-relay-"));
+        for (int i = 0; i < workers; i++) {
+            pool.submit(this::workLoop);
+        }
+        log.info("[OUTBOX] Started {} relay workers (batchSize={}, idleDelayMs={})", workers, batchSize, idleDelayMs);
+    }
 
-    @Scheduled(fixedDelay = 500)
-    @Transactional
-    public void flushOutbox() {
-        var batch = repo.findTop100ByStatusOrderByIdAsc("NEW");
-        if (batch.isEmpty()) return;
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (pool != null) {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private void workLoop() {
+        while (running) {
+            try {
+                if (flushBatch() < batchSize) sleepIdle();
+            } catch (Exception ex) {
+                log.error("[OUTBOX] Relay worker error: {}", ex.getMessage(), ex);
+                sleepIdle();
+            }
+        }
+    }
+
+    private void sleepIdle() {
+        try {
+            Thread.sleep(idleDelayMs);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
 
+    /**
+     * Claim 1 lô, gửi tất cả bất đồng bộ rồi chờ ack; chỉ dòng có ack mới thành SENT.
+     * Dòng gửi lỗi giữ NEW và được hẹn thử lại theo backoff. Trả về số dòng đã claim.
+     */
+    int flushBatch() {
+        List<OutboxEvent> batch = tx.execute(status -> claim());
+        if (batch == null || batch.isEmpty()) return 0;
+
+        List<CompletableFuture<?>> acks = new ArrayList<>(batch.size());
         for (var e : batch) {
+            CompletableFuture<?> ack;
             try {
-                switch (e.getEventType()) {
-                    case "STOCK_RESERVED" -> {
-                        var reserved = om.readValue(e.getPayload(), StockReserved.class);
-                        projector.projectReserved(e.getId(), reserved.getProductId(), reserved.getQuantity());
-                        kafka.send("stock-reserved", reserved);
-                    }
-                    case "STOCK_REJECTED" -> {
-                        var rejected = om.readValue(e.getPayload(), StockRejected.class);
-                        kafka.send("stock-rejected", rejected);
-                    }
-                    case "STOCK_RELEASED" -> {
-                        var node = om.readTree(e.getPayload());
-                        projector.projectReleased(e.getId(),
-                                node.get("productId").asText(),
-                                node.get("quantity").asInt());
-                        kafka.send("stock-released", node);
-                    }
-                    case "PRODUCT_STOCK_DECREASED" -> {
-                        var node = om.readTree(e.getPayload());
-                        kafka.send("product-stock-decreased", node);
-                    }
-                    case "ORDER_CONFIRMED" -> {
-                        var node = om.readTree(e.getPayload());
-                        kafka.send("order-confirmed", node);
-                    }
-                    case "ORDER_CANCELLED" -> {
-                        var node = om.readTree(e.getPayload());
-                        kafka.send("order-cancelled", node);
-                    }
-                    default -> log.warn("Unknown eventType: {}", e.getEventType());
-                }
-                e.setStatus("SENT");
-                log.info("[OUTBOX] SENT {} for {}", e.getEventType(), e.getAggregateId());
+                ack = "FAILED".equals(e.getStatus()) ? null : publish(e);
+            } catch (JsonProcessingException ex) {
+                failed(e, ex);
+                ack = null;
             } catch (Exception ex) {
-                e.setStatus("FAILED");
-                e.setLastError(ex.getMessage());
-                log.error("Outbox publish failed id={}: {}", e.getId(), ex.getMessage());
+                ack = CompletableFuture.failedFuture(ex);
             }
+            acks.add(ack);
         }
-        repo.saveAll(batch);
+
+        try {
+            CompletableFuture.allOf(acks.stream().filter(Objects::nonNull).toArray(CompletableFuture[]::new))
+                    .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception ignore) {
+            // lỗi/timeout được xử lý theo từng dòng bên dưới
+        }
+
+        int sent = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            var e = batch.get(i);
+            var ack = acks.get(i);
+            e.setClaimedUntil(null);
+            if (ack == null) continue;
+
+            Throwable error = ackError(ack);
+            if (error == null) {
+                e.setStatus("SENT");
+                e.setLastError(null);
+                sent++;
+            } else {
+                scheduleRetry(e, error);
+            }
+        }
+        tx.executeWithoutResult(status -> repo.saveAll(batch));
+        log.info("[OUTBOX] Batch claimed={}, acked={}", batch.size(), sent);
+        return batch.size();
+    }
+
+    // Transaction ngắn: claim + lease + chiếu DB cho cả lô (gộp delta theo product, idempotent theo ledger)
+    private List<OutboxEvent> claim() {
+        Instant now = Instant.now();
+        List<OutboxEvent> batch = repo.claimBatch(batchSize, now);
+        if (batch.isEmpty()) return batch;
+
+        Instant lease = now.plusMillis(Math.max(claimLeaseMs, sendTimeoutMs * 2));
+        List<StockProjector.Delta> deltas = new ArrayList<>();
+        for (var e : batch) {
+            e.setClaimedUntil(lease);
+            try {
+                StockProjector.Delta d = delta(e);
+                if (d != null) deltas.add(d);
+            } catch (JsonProcessingException ex) {
+                failed(e, ex);
+            }
+        }
+        projector.projectBatch(deltas);
+        return repo.saveAll(batch);
+    }
+
+    // payload hỏng thì retry cũng vô ích
+    private void failed(OutboxEvent e, JsonProcessingException ex) {
+        e.setStatus("FAILED");
+        e.setLastError(ex.getMessage());
+        log.error("Outbox payload invalid id={}: {}", e.getId(), ex.getMessage());
+    }
+
+    private StockProjector.Delta delta(OutboxEvent e) throws JsonProcessingException {
+        return switch (e.getEventType()) {
+            case StockProjector.RESERVED, StockProjector.RELEASED -> {
+                var node = om.readTree(e.getPayload());
+                yield new StockProjector.Delta(e.getId(), e.getEventType(),
+                        node.get("productId").asText(), node.get("quantity").asInt());
+            }
+            default -> null;
+        };
+    }
+
+    private CompletableFuture<?> publish(OutboxEvent e) throws JsonProcessingException {
+        return switch (e.getEventType()) {
+            case "STOCK_RESERVED" -> kafka.send("stock-reserved", e.getAggregateId(),
+                    om.readValue(e.getPayload(), StockReserved.class));
+            case "STOCK_REJECTED" -> kafka.send("stock-rejected", e.getAggregateId(),
+                    om.readValue(e.getPayload(), StockRejected.class));
+            case "STOCK_RELEASED" -> kafka.send("stock-released", e.getAggregateId(), om.readTree(e.getPayload()));
+            case "PRODUCT_STOCK_DECREASED" -> kafka.send("product-stock-decreased", e.getAggregateId(), om.readTree(e.getPayload()));
+            case "ORDER_CONFIRMED" -> kafka.send("order-confirmed", e.getAggregateId(), om.readTree(e.getPayload()));
+            case "ORDER_CANCELLED" -> kafka.send("order-cancelled", e.getAggregateId(), om.readTree(e.getPayload()));
+            case "STOCK_HOLD_EXPIRED" -> kafka.send("stock-hold-expired", e.getAggregateId(), om.readTree(e.getPayload()));
+            default -> {
+                log.warn("Unknown eventType: {}", e.getEventType());
+                yield CompletableFuture.completedFuture(null);
+            }
+        };
+    }
+
+    private Throwable ackError(CompletableFuture<?> ack) {
+        if (!ack.isDone()) {
+            return new TimeoutException("No ack within " + sendTimeoutMs + " ms");
+        }
+        try {
+            ack.join();
+            return null;
+        } catch (CompletionException | CancellationException ex) {
+            return ex.getCause() != null ? ex.getCause() : ex;
+        }
+    }
+
+    // Giữ NEW, tăng attempts và hẹn lần thử sau: base * 2^(attempts-1), tối đa retry-max-ms
+    private void scheduleRetry(OutboxEvent e, Throwable error) {
+        int attempts = (e.getAttempts() == null ? 0 : e.getAttempts()) + 1;
+        long delay = Math.min(retryMaxMs, retryBaseMs << Math.min(attempts - 1, 20));
+        e.setAttempts(attempts);
+        e.setNextAttemptAt(Instant.now().plusMillis(delay));
+        e.setLastError(error.getMessage());
+        log.warn("Outbox publish failed id={} attempt={} retryIn={}ms: {}", e.getId(), attempts, delay, error.getMessage());
     }
 }
@@ -0,0 +1,42 @@
+package com.store.outbox;
+
+import com.store.model.OutboxEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Ghi nhiều dòng outbox bằng 1 JDBC batch insert. OutboxEvent dùng id IDENTITY nên saveAll của JPA
+ * vẫn INSERT từng dòng; ở đây kết hợp rewriteBatchedStatements thành 1 câu INSERT nhiều giá trị.
+ * Chạy trong transaction của caller.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OutboxWriter {
+
+    private final JdbcTemplate jdbc;
+
+    public void insertAll(List<OutboxEvent> rows) {
+        if (rows.isEmpty()) return;
+        Instant now = Instant.now();
+        jdbc.batchUpdate(
+                "INSERT INTO outbox_event (aggregate_type, aggregate_id, event_type, payload, status, created_at) " +
+                        "VALUES (?, ?, ?, ?, ?, ?)",
+                rows, rows.size(), (ps, e) -> {
+                    ps.setString(1, e.getAggregateType());
+                    ps.setString(2, e.getAggregateId());
+                    ps.setString(3, e.getEventType());
+                    ps.setString(4, e.getPayload());
+                    ps.setString(5, e.getStatus());
+                    // @PrePersist không chạy với JDBC; engine memory đọc cột này khi warm-up
+                    ps.setTimestamp(6, Timestamp.from(e.getCreatedAt() != null ? e.getCreatedAt() : now));
+                });
+        log.debug("[OUTBOX] Batch inserted {} rows", rows.size());
+    }
+}
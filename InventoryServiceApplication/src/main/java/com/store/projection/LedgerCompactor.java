@@ -0,0 +1,133 @@
+package com.store.projection;
+
+import com.store.model.LedgerCheckpoint;
+import com.store.repository.LedgerCheckpointRepository;
+import com.store.repository.OutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nén stock_ledger định kỳ: các dòng có outbox id <= watermark được cộng dồn vào stock_snapshot theo product
+ * rồi xoá hàng loạt, nên ledger chỉ còn phần đuôi chưa nén và StockProjector bỏ qua id <= watermark mà không
+ * phải đọc ledger. Watermark = min(dòng outbox NEW nhỏ nhất - 1, max id thấy ở lần nén trước).
+ * Mỗi đoạn chunk-size id chạy trong 1 transaction, giữ khoá dòng stock_ledger_checkpoint.
+ */
+@Slf4j
+@Component
+public class LedgerCompactor {
+
+    private final OutboxRepository outboxRepository;
+    private final LedgerCheckpointRepository checkpointRepository;
+    private final StockProjector projector;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    @Value("${inventory.ledger.compaction-chunk-size:10000}")
+    private long chunkSize;
+
+    public LedgerCompactor(OutboxRepository outboxRepository,
+                           LedgerCheckpointRepository checkpointRepository,
+                           StockProjector projector,
+                           JdbcTemplate jdbc,
+                           PlatformTransactionManager txManager) {
+        this.outboxRepository = outboxRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.projector = projector;
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.ledger.compaction-interval-ms:600000}",
+            initialDelayString = "${inventory.ledger.compaction-initial-delay-ms:120000}")
+    public void scheduled() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("[LEDGER] Compaction failed", e);
+        }
+    }
+
+    /** @return watermark sau khi nén */
+    public synchronized long compact() {
+        long started = System.currentTimeMillis();
+        long from = -1, to = -1;
+        while (true) {
+            long[] range = tx.execute(status -> compactChunk());
+            if (range == null) break;
+            if (from < 0) from = range[0];
+            to = range[1];
+            projector.advanceWatermark(to);
+            if (range[2] == 0) break;
+        }
+        if (from >= 0) {
+            log.info("[LEDGER] Compacted outbox ids ({}, {}] in {} ms", from, to, System.currentTimeMillis() - started);
+        }
+        return projector.watermark();
+    }
+
+    // Trả về {watermark cũ, watermark mới, 1 nếu còn đoạn tiếp}, null nếu không có gì để nén
+    private long[] compactChunk() {
+        LedgerCheckpoint cp = checkpointRepository.lockById(LedgerCheckpoint.ID).orElse(null);
+        Long maxId = outboxRepository.findMaxId();
+        if (cp == null) {
+            // lần đầu: chỉ ghi candidate, lần sau mới bắt đầu nén
+            checkpointRepository.save(LedgerCheckpoint.builder()
+                    .id(LedgerCheckpoint.ID).watermark(0L).candidate(maxId == null ? 0L : maxId).build());
+            return null;
+        }
+
+        Long minNew = outboxRepository.findMinNewId();
+        long target = Math.min(cp.getCandidate(), minNew == null ? Long.MAX_VALUE : minNew - 1);
+        long lo = cp.getWatermark();
+        long hi = Math.min(target, lo + chunkSize);
+        if (hi <= lo) {
+            cp.setCandidate(maxId == null ? lo : maxId);
+            return null;
+        }
+
+        List<Map<String, Object>> totals = jdbc.queryForList("""
+                SELECT product_id,
+                       SUM(CASE WHEN event_type = ? THEN quantity ELSE 0 END) AS reserved,
+                       SUM(CASE WHEN event_type = ? THEN quantity ELSE 0 END) AS released,
+                       COUNT(*) AS events
+                  FROM stock_ledger
+                 WHERE outbox_id > ? AND outbox_id <= ?
+                 GROUP BY product_id
+                """, StockProjector.RESERVED, StockProjector.RELEASED, lo, hi);
+
+        jdbc.batchUpdate("""
+                INSERT INTO stock_snapshot (product_id, reserved_total, released_total, events, watermark, updated_at)
+                VALUES (?, ?, ?, ?, ?, ?)
+                ON DUPLICATE KEY UPDATE reserved_total = reserved_total + VALUES(reserved_total),
+                                        released_total = released_total + VALUES(released_total),
+                                        events = events + VALUES(events),
+                                        watermark = VALUES(watermark),
+                                        updated_at = VALUES(updated_at)
+                """, totals, totals.size(), (ps, t) -> {
+            ps.setString(1, (String) t.get("product_id"));
+            ps.setLong(2, ((Number) t.get("reserved")).longValue());
+            ps.setLong(3, ((Number) t.get("released")).longValue());
+            ps.setLong(4, ((Number) t.get("events")).longValue());
+            ps.setLong(5, hi);
+            ps.setTimestamp(6, Timestamp.from(Instant.now()));
+        });
+        int deleted = jdbc.update("DELETE FROM stock_ledger WHERE outbox_id > ? AND outbox_id <= ?", lo, hi);
+
+        boolean more = hi < target;
+        cp.setWatermark(hi);
+        if (!more) cp.setCandidate(maxId == null ? hi : maxId);
+        cp.setCompactedAt(Instant.now());
+        log.debug("[LEDGER] Chunk ({}, {}] products={}, deleted={}", lo, hi, totals.size(), deleted);
+        return new long[]{lo, hi, more ? 1 : 0};
+    }
+}
@@ -1,45 +1,106 @@
 package com.store.projection;
 
-import com.store.model.StockLedger;
+import com.store.model.LedgerCheckpoint;
 import com.store.repository.InventoryRepository;
+import com.store.repository.LedgerCheckpointRepository;
 import com.store.repository.StockLedgerRepository;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.*;
+
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class StockProjector {
 
+    public static final String RESERVED = "STOCK_RESERVED";
+    public static final String RELEASED = "STOCK_RELEASED";
+
     private final InventoryRepository inventoryRepository;
     private final StockLedgerRepository ledgerRepository;
+    private final LedgerCheckpointRepository checkpointRepository;
+    private final JdbcTemplate jdbc;
+
+    // Watermark của LedgerCompactor (-1 = chưa đọc); bản cũ hơn DB chỉ làm probe ledger nhiều hơn, không sai
+    private volatile long watermark = -1;
+
+    /** 1 dòng outbox cần chiếu vào bảng inventory. */
+    public record Delta(Long outboxId, String eventType, String productId, int quantity) {
+        int signed() { return RESERVED.equals(eventType) ? -quantity : quantity; }
+    }
+
+    /** Mọi outbox id <= watermark đã được chiếu; ledger của chúng đã được nén vào stock_snapshot. */
+    public long watermark() {
+        long w = watermark;
+        if (w < 0) {
+            w = checkpointRepository.findById(LedgerCheckpoint.ID).map(LedgerCheckpoint::getWatermark).orElse(0L);
+            watermark = w;
+        }
+        return w;
+    }
 
+    void advanceWatermark(long w) {
+        if (w > watermark) watermark = w;
+    }
+
+    /**
+     * Chiếu cả lô của relay: bỏ các outboxId <= watermark mà không cần đọc DB, các id còn lại thì
+     * bỏ nếu đã có trong ledger (1 câu IN trên phần ledger chưa nén), gộp delta theo productId,
+     * 1 UPDATE cho mỗi product (theo thứ tự productId để các worker không deadlock nhau)
+     * và ghi ledger bằng JDBC batch insert.
+     */
     @Transactional
-    public void projectReserved(Long outboxId, String productId, int qty) {
-        // idempotent: nếu đã chiếu outbox này thì bỏ qua
-        if (ledgerRepository.existsById(outboxId)) return;
-
-        // Cập nhật DB (projection)
-        int ok = inventoryRepository.applyReserve(productId, qty);
-        // Dù ok=0 (DB không đủ vì lệch so với Redis), projection vẫn ghi ledger để tránh loop vô hạn
-        ledgerRepository.save(StockLedger.builder()
-                .outboxId(outboxId)
-                .eventType("STOCK_RESERVED")
-                .productId(productId)
-                .quantity(qty)
-                .build());
+    public void projectBatch(List<Delta> deltas) {
+        if (deltas.isEmpty()) return;
+
+        // idempotent: outbox nào đã chiếu thì bỏ qua
+        long w = watermark();
+        List<Delta> fresh = deltas.stream().filter(d -> d.outboxId() > w).toList();
+        if (fresh.isEmpty()) return;
+        Set<Long> done = new HashSet<>(ledgerRepository.findExistingIds(
+                fresh.stream().map(Delta::outboxId).toList()));
+        List<Delta> todo = fresh.stream().filter(d -> !done.contains(d.outboxId())).toList();
+        if (todo.isEmpty()) return;
+
+        Map<String, Integer> net = new TreeMap<>();
+        for (Delta d : todo) {
+            net.merge(d.productId(), d.signed(), Integer::sum);
+        }
+
+        net.forEach((productId, delta) -> {
+            if (delta == 0) return;
+            int ok = inventoryRepository.applyDelta(productId, delta);
+            // Dù ok=0 (DB không đủ vì lệch so với Redis), projection vẫn ghi ledger để tránh loop vô hạn
+            if (ok == 0) {
+                log.warn("[PROJ] applyDelta không áp được productId={}, delta={}", productId, delta);
+            }
+        });
+
+        insertLedger(todo);
+        log.debug("[PROJ] Projected {} events onto {} products", todo.size(), net.size());
     }
 
+    /**
+     * Ghi ledger cho các dòng outbox mà inventory đã được trừ/cộng trực tiếp (giữ hàng ở MySQL khi Redis lỗi),
+     * để relay không chiếu lại lần nữa. Phải chạy cùng transaction với việc ghi outbox.
+     */
     @Transactional
-    public void projectReleased(Long outboxId, String productId, int qty) {
-        if (ledgerRepository.existsById(outboxId)) return;
-
-        inventoryRepository.applyRelease(productId, qty);
-        ledgerRepository.save(StockLedger.builder()
-                .outboxId(outboxId)
-                .eventType("STOCK_RELEASED")
-                .productId(productId)
-                .quantity(qty)
-                .build());
+    public void markProjected(List<Delta> deltas) {
+        if (!deltas.isEmpty()) insertLedger(deltas);
+    }
+
+    private void insertLedger(List<Delta> deltas) {
+        jdbc.batchUpdate(
+                "INSERT INTO stock_ledger (outbox_id, event_type, product_id, quantity) VALUES (?, ?, ?, ?)",
+                deltas, deltas.size(), (ps, d) -> {
+                    ps.setLong(1, d.outboxId());
+                    ps.setString(2, d.eventType());
+                    ps.setString(3, d.productId());
+                    ps.setInt(4, d.quantity());
+                });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,177 @@
+package com.store.reconcile;
+
+import com.store.hotsku.HotSkuStock;
+import com.store.model.Inventory;
+import com.store.repository.InventoryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * So khớp định kỳ bộ đếm Redis stock:* với bảng inventory (projection MySQL) mà không quét cả bảng 1 lần:
+ * SCAN key theo lô + MGET + findAllById cho lô đó, rồi đọc inventory theo trang để tìm key Redis bị thiếu.
+ * Kết quả được đưa ra metric inventory.stock.drift.*; tuỳ chọn tự sửa DB theo Redis khi độ lệch nhỏ
+ * và ổn định qua 2 lần quét liên tiếp (tránh "sửa" các dòng outbox đang chờ chiếu).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "inventory.engine", havingValue = "redis", matchIfMissing = true)
+public class StockDriftReconciler {
+
+    private final StringRedisTemplate redis;
+    private final InventoryRepository inventoryRepository;
+    private final HotSkuStock hotSku;
+
+    private final AtomicLong driftProducts = new AtomicLong();
+    private final AtomicLong driftAbsTotal = new AtomicLong();
+    private final AtomicLong driftMaxAbs = new AtomicLong();
+    private final AtomicLong missingKeys = new AtomicLong();
+    private final AtomicLong orphanKeys = new AtomicLong();
+    private final Counter repaired;
+
+    // productId -> drift của lần quét trước, để chỉ sửa khi lệch ổn định
+    private Map<String, Long> previousDrift = Map.of();
+
+    @Value("${inventory.reconcile.batch-size:500}")
+    private int batchSize;
+
+    @Value("${inventory.reconcile.repair-enabled:false}")
+    private boolean repairEnabled;
+
+    @Value("${inventory.reconcile.max-repair-delta:10}")
+    private long maxRepairDelta;
+
+    public StockDriftReconciler(StringRedisTemplate redis,
+                                InventoryRepository inventoryRepository,
+                                HotSkuStock hotSku,
+                                MeterRegistry registry) {
+        this.redis = redis;
+        this.inventoryRepository = inventoryRepository;
+        this.hotSku = hotSku;
+        registry.gauge("inventory.stock.drift.products", driftProducts);
+        registry.gauge("inventory.stock.drift.abs.total", driftAbsTotal);
+        registry.gauge("inventory.stock.drift.abs.max", driftMaxAbs);
+        registry.gauge("inventory.stock.drift.missing.keys", missingKeys);
+        registry.gauge("inventory.stock.drift.orphan.keys", orphanKeys);
+        this.repaired = registry.counter("inventory.stock.drift.repaired");
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.reconcile.interval-ms:300000}",
+            initialDelayString = "${inventory.reconcile.initial-delay-ms:60000}")
+    public void scheduled() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("[RECONCILE] Stock drift check failed", e);
+        }
+    }
+
+    public synchronized Map<String, Long> reconcile() {
+        Map<String, Long> drift = new HashMap<>();
+        long orphans = 0, missing = 0;
+
+        // 1) SCAN stock:* theo lô -> MGET -> so với inventory của đúng lô đó
+        ScanOptions opts = ScanOptions.scanOptions().match("stock:*").count(batchSize).build();
+        try (Cursor<String> cursor = redis.scan(opts)) {
+            List<String> keys = new ArrayList<>(batchSize);
+            while (cursor.hasNext()) {
+                keys.add(cursor.next());
+                if (keys.size() >= batchSize) {
+                    orphans += compareBatch(keys, drift);
+                    keys.clear();
+                }
+            }
+            if (!keys.isEmpty()) orphans += compareBatch(keys, drift);
+        }
+
+        // 2) Đọc inventory theo trang để tìm product chưa có key Redis
+        String after = "";
+        while (true) {
+            List<Inventory> page = inventoryRepository.findByProductIdGreaterThanOrderByProductIdAsc(
+                    after, PageRequest.of(0, batchSize));
+            if (page.isEmpty()) break;
+            List<String> vals = redis.opsForValue().multiGet(page.stream().map(i -> stockKey(i.getProductId())).toList());
+            for (int i = 0; i < page.size(); i++) {
+                if (vals == null || vals.get(i) == null) {
+                    missing++;
+                    if (repairEnabled) {
+                        redis.opsForValue().setIfAbsent(stockKey(page.get(i).getProductId()),
+                                String.valueOf(page.get(i).getQuantity()));
+                        repaired.increment();
+                    }
+                }
+            }
+            after = page.get(page.size() - 1).getProductId();
+            if (page.size() < batchSize) break;
+        }
+
+        driftProducts.set(drift.size());
+        driftAbsTotal.set(drift.values().stream().mapToLong(Math::abs).sum());
+        driftMaxAbs.set(drift.values().stream().mapToLong(Math::abs).max().orElse(0));
+        missingKeys.set(missing);
+        orphanKeys.set(orphans);
+        previousDrift = drift;
+
+        log.info("[RECONCILE] drift products={}, absTotal={}, maxAbs={}, missingKeys={}, orphanKeys={}",
+                drift.size(), driftAbsTotal.get(), driftMaxAbs.get(), missing, orphans);
+        return drift;
+    }
+
+    /** So 1 lô key Redis với DB; ghi drift (redis - db) vào map và trả về số key không có dòng DB. */
+    private long compareBatch(List<String> keys, Map<String, Long> drift) {
+        List<String> vals = redis.opsForValue().multiGet(keys);
+        List<String> ids = keys.stream().map(k -> k.substring("stock:".length())).toList();
+        Map<String, Inventory> db = inventoryRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Inventory::getProductId, Function.identity()));
+
+        long orphans = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            String raw = vals == null ? null : vals.get(i);
+            if (raw == null) continue; // key hết hạn/bị xoá giữa SCAN và MGET
+            Inventory inv = db.get(ids.get(i));
+            if (inv == null) {
+                orphans++;
+                continue;
+            }
+            long redisQty;
+            try {
+                redisQty = Long.parseLong(raw);
+                if (hotSku.isHot(ids.get(i))) redisQty += hotSku.total(ids.get(i));
+            } catch (NumberFormatException e) {
+                log.warn("[RECONCILE] Giá trị không phải số ở {}: {}", keys.get(i), raw);
+                continue;
+            }
+            long d = redisQty - inv.getQuantity();
+            if (d == 0) continue;
+            drift.put(inv.getProductId(), d);
+            maybeRepair(inv, redisQty, d);
+        }
+        return orphans;
+    }
+
+    // Redis là nguồn sự thật khi giữ hàng: đưa projection DB về giá trị Redis (CAS theo giá trị DB đã đọc)
+    private void maybeRepair(Inventory inv, long redisQty, long d) {
+        if (!repairEnabled || Math.abs(d) > maxRepairDelta) return;
+        if (!Long.valueOf(d).equals(previousDrift.get(inv.getProductId()))) return;
+        int ok = inventoryRepository.overwriteQuantity(inv.getProductId(), inv.getQuantity(), (int) redisQty);
+        if (ok == 1) {
+            repaired.increment();
+            log.info("[RECONCILE] Repaired inventory productId={} {} -> {}", inv.getProductId(), inv.getQuantity(), redisQty);
+        }
+    }
+
+    private String stockKey(String productId) { return "stock:" + productId; }
+}
@@ -0,0 +1,31 @@
+package com.store.repository;
+
+import com.store.model.FallbackReservation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface FallbackReservationRepository extends JpaRepository<FallbackReservation, Long> {
+
+    List<FallbackReservation> findByOrderId(String orderId);
+
+    Optional<FallbackReservation> findByOrderIdAndProductIdAndSize(String orderId, String productId, String size);
+
+    // Các dòng chưa đưa vào Redis, đọc theo keyset id
+    List<FallbackReservation> findByReplayedFalseAndIdGreaterThanOrderByIdAsc(Long after, Pageable pageable);
+
+    boolean existsByReplayedFalse();
+
+    // Dọn dòng đã replay quá hạn idempotency
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM FallbackReservation f WHERE f.replayed = true AND f.createdAt < :before")
+    int deleteReplayedBefore(@Param("before") Instant before);
+}
@@ -1,17 +1,23 @@
 package com.store.repository;
 
 import com.store.model.Inventory;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
 @Repository
 public interface InventoryRepository extends JpaRepository<Inventory, String> {
     Optional<Inventory> findByProductId(String productId);
 
+    // Đọc theo trang kiểu keyset (productId > after) để warm-up/quét toàn bảng mà không dùng OFFSET
+    List<Inventory> findByProductIdGreaterThanOrderByProductIdAsc(String after, Pageable pageable);
+
     @Modifying
     @Query("UPDATE Inventory i SET i.quantity = i.quantity - :qty " +
             "WHERE i.productId = :productId AND i.quantity >= :qty")
@@ -22,5 +28,20 @@ public interface InventoryRepository extends JpaRepository<Inventory, String> {
             "WHERE i.productId = :productId")
     int applyRelease(@Param("productId") String productId, @Param("qty") int qty);
 
+    // Áp delta đã gộp của cả lô (âm = reserve, dương = release); không cho tồn xuống dưới 0
+    @Modifying
+    @Query("UPDATE Inventory i SET i.quantity = i.quantity + :delta " +
+            "WHERE i.productId = :productId AND i.quantity + :delta >= 0")
+    int applyDelta(@Param("productId") String productId, @Param("delta") int delta);
+
+    // Ghi đè có điều kiện (CAS) khi reconcile: chỉ sửa nếu DB vẫn còn giá trị đã đọc
+    @Transactional
+    @Modifying
+    @Query("UPDATE Inventory i SET i.quantity = :quantity " +
+            "WHERE i.productId = :productId AND i.quantity = :expected")
+    int overwriteQuantity(@Param("productId") String productId,
+                          @Param("expected") int expected,
+                          @Param("quantity") int quantity);
+
     void deleteByProductId(String productId);
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.store.repository;
+
+import com.store.model.LedgerCheckpoint;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface LedgerCheckpointRepository extends JpaRepository<LedgerCheckpoint, Integer> {
+
+    // SELECT ... FOR UPDATE: các instance nén ledger lần lượt, không cộng trùng vào snapshot
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from LedgerCheckpoint c where c.id = :id")
+    Optional<LedgerCheckpoint> lockById(@Param("id") Integer id);
+}
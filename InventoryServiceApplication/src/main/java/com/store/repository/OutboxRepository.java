@@ -1,9 +1,44 @@
 package com.store.repository;
 
 import com.store.model.OutboxEvent;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 public interface OutboxRepository extends JpaRepository<OutboxEvent, Long> {
-    List<OutboxEvent> findTop100ByStatusOrderByIdAsc(String status);
-}
\ No newline at end of file
+    // Claim 1 lô NEW đã tới hạn gửi và không nằm trong lease của worker khác: các worker/instance khác bỏ qua
+    // dòng đang bị khoá nên mỗi worker nhận lô riêng. Phải gọi trong transaction, rồi ghi claimed_until trước khi commit.
+    @Query(value = """
+            SELECT * FROM outbox_event
+             WHERE status = 'NEW'
+               AND (next_attempt_at IS NULL OR next_attempt_at <= :now)
+               AND (claimed_until IS NULL OR claimed_until <= :now)
+             ORDER BY id
+             LIMIT :limit
+               FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<OutboxEvent> claimBatch(@Param("limit") int limit, @Param("now") Instant now);
+
+    // Đọc theo keyset id các dòng chưa gửi của vài loại event (engine memory cộng lại phần chưa chiếu vào inventory)
+    List<OutboxEvent> findByStatusAndEventTypeInAndIdGreaterThanOrderByIdAsc(
+            String status, Collection<String> eventTypes, Long after, Pageable pageable);
+
+    // Mọi trạng thái, theo keyset id, tạo sau since (engine memory dựng lại idempotency giữ/trả hàng)
+    List<OutboxEvent> findByEventTypeInAndCreatedAtAfterAndIdGreaterThanOrderByIdAsc(
+            Collection<String> eventTypes, Instant since, Long after, Pageable pageable);
+
+    // Outbox đã ghi của vài order (InventoryListener kiểm tra dòng duplicate có bị mất outbox không)
+    List<OutboxEvent> findByAggregateIdInAndEventType(Collection<String> aggregateIds, String eventType);
+
+    // Nén stock_ledger: mọi id nhỏ hơn dòng NEW nhỏ nhất đều đã được chiếu (hoặc FAILED, không bao giờ chiếu)
+    @Query("select min(o.id) from OutboxEvent o where o.status = 'NEW'")
+    Long findMinNewId();
+
+    @Query("select max(o.id) from OutboxEvent o")
+    Long findMaxId();
+}
@@ -2,7 +2,15 @@ package com.store.repository;
 
 import com.store.model.StockLedger;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 public interface StockLedgerRepository extends JpaRepository<StockLedger, Long> {
 
+    // Các outboxId trong lô đã được chiếu (1 câu IN thay cho existsById từng dòng); chỉ còn phần ledger trên watermark
+    @Query("select l.outboxId from StockLedger l where l.outboxId in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,7 @@
+package com.store.repository;
+
+import com.store.model.StockSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface StockSnapshotRepository extends JpaRepository<StockSnapshot, String> {
+}
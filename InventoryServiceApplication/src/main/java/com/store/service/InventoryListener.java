@@ -2,301 +2,292 @@ package com.store.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.store.dto.*;
-import com.store.model.Inventory;
+import com.store.engine.StockEngine;
+import com.store.hold.ReservationHoldScheduler;
 import com.store.model.OutboxEvent;
-import com.store.repository.InventoryRepository;
+import com.store.outbox.OutboxWriter;
+import com.store.projection.StockProjector;
 import com.store.repository.OutboxRepository;
+import com.store.warmup.StockWarmup;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Component
 public class InventoryListener {
 
-    private final StringRedisTemplate redis;
-    private final DefaultRedisScript<Long> reserveScript;
-    private final DefaultRedisScript<Long> releaseScript;
+    private final StockEngine engine;
     private final OutboxRepository outboxRepo;
-    private final InventoryRepository inventoryRepository;
+    private final OutboxWriter outboxWriter;
+    private final StockProjector projector;
+    // Chỉ có với engine Redis; engine memory không giữ hàng có hạn
+    private final ObjectProvider<ReservationHoldScheduler> holds;
     private final ObjectMapper om = new ObjectMapper();
 
     public InventoryListener(
-            StringRedisTemplate redis,
-            @Qualifier("reserveScript") DefaultRedisScript<Long> reserveScript,
-            @Qualifier("releaseScript") DefaultRedisScript<Long> releaseScript,
+            StockEngine engine,
             OutboxRepository outboxRepo,
-            InventoryRepository inventoryRepository
+            OutboxWriter outboxWriter,
+            StockProjector projector,
+            ObjectProvider<ReservationHoldScheduler> holds
     ) {
-        this.redis = redis;
-        this.reserveScript = reserveScript;
-        this.releaseScript = releaseScript;
+        this.engine = engine;
         this.outboxRepo = outboxRepo;
-        this.inventoryRepository = inventoryRepository;
+        this.outboxWriter = outboxWriter;
+        this.projector = projector;
+        this.holds = holds;
     }
 
     /* ==================== Helpers ==================== */
 
-    private String stockKey(String productId) { return "stock:" + productId; }
-    private String seenKeyItem(String orderId, String productId) { return "order:seen:" + orderId + "#" + productId; }
-
-    // Khởi tạo Redis từ DB nếu key chưa có
-    private void ensureRedisStockKey(String productId) {
-        String key = stockKey(productId);
-        String val = redis.opsForValue().get(key);
-        if (val == null) {
-            int dbQty = inventoryRepository.findByProductId(productId)
-                    .map(Inventory::getQuantity)
-                    .orElse(0);
-            redis.opsForValue().setIfAbsent(key, String.valueOf(dbQty));
-            log.info("[INV] Init Redis {} = {} (from DB)", key, dbQty);
-        }
+    private OutboxEvent outboxRow(String aggregateType, String aggregateId, String eventType, Object payload) throws Exception {
+        return OutboxEvent.builder()
+                .aggregateType(aggregateType)
+                .aggregateId(aggregateId)
+                .eventType(eventType)
+                .payload(om.writeValueAsString(payload))
+                .status("NEW")
+                .build();
     }
 
-    private void reserveOneItem(String orderId, String userId, String productId, int quantity) {
-        ensureRedisStockKey(productId);
+    private void saveOutbox(String aggregateType, String aggregateId, String eventType, Object payload) throws Exception {
+        outboxRepo.save(outboxRow(aggregateType, aggregateId, eventType, payload));
+    }
 
-        var keys = List.of(stockKey(productId), seenKeyItem(orderId, productId));
-        var args = List.of(orderId + "#" + productId, String.valueOf(quantity), "600"); // TTL idempotency 10 phút
+    // STOCK_RESERVED/RELEASED của dòng giữ/trả thẳng trên MySQL (Redis lỗi): inventory đã đổi rồi,
+    // nên ghi kèm ledger để relay không chiếu lại delta lần nữa
+    private void saveProjected(List<OutboxEvent> rows) throws Exception {
+        if (rows.isEmpty()) return;
+        List<StockProjector.Delta> deltas = new ArrayList<>(rows.size());
+        for (OutboxEvent e : outboxRepo.saveAll(rows)) {
+            var node = om.readTree(e.getPayload());
+            deltas.add(new StockProjector.Delta(e.getId(), e.getEventType(),
+                    node.get("productId").asText(), node.get("quantity").asInt()));
+        }
+        projector.markProjected(deltas);
+    }
 
-        Long res = redis.execute(reserveScript, keys, args.toArray()); // 1=OK, 0=insufficient, 2=duplicate
+    /**
+     * Ghi outbox theo kết quả giữ hàng của 1 order (StockEngine): hoặc tất cả dòng được trừ, hoặc không dòng nào bị trừ.
+     * Khi bị từ chối chỉ phát STOCK_REJECTED cho các dòng thiếu hàng,
+     * nên OrderService không còn phải release bù cho các dòng đã giữ trước đó.
+     * Outbox được gom vào out để ghi 1 lần cho cả lô; STOCK_RESERVED của dòng giữ trên MySQL vào direct.
+     */
+    private void completeReservation(String orderId, List<OrderCreated.Item> items, long[] res,
+                                     long holdDeadline, List<OutboxEvent> out, List<OutboxEvent> direct) {
+        // mỗi dòng: 1=OK, 0=insufficient, 2=duplicate, 3=aborted, 4=OK trên MySQL
+        boolean rejected = Arrays.stream(res).anyMatch(r -> r == 0L);
         try {
-            if (res != null && res == 1L) {
-                // 1) STOCK_RESERVED (per item)
-                var reserved = StockReserved.builder()
-                        .orderId(orderId)
-                        .productId(productId)
-                        .quantity(quantity)
-                        .build();
-                outboxRepo.save(OutboxEvent.builder()
-                        .aggregateType("order")
-                        .aggregateId(orderId)
-                        .eventType("STOCK_RESERVED")
-                        .payload(om.writeValueAsString(reserved))
-                        .status("NEW")
-                        .build());
-
-                // 2) PRODUCT_STOCK_DECREASED (per item) – cho product-service trừ DB kho chính
-                outboxRepo.save(OutboxEvent.builder()
-                        .aggregateType("product")
-                        .aggregateId(productId)
-                        .eventType("PRODUCT_STOCK_DECREASED")
-                        .payload(om.writeValueAsString(Map.of(
-                                "productId", productId,
-                                "quantity", quantity
-                        )))
-                        .status("NEW")
-                        .build());
-
-                log.info("[INV] Reserved OK productId={}, qty={} (orderId={})", productId, quantity, orderId);
-
-                // ❌ Không phát ORDER_CONFIRMED ở inventory: OrderService sẽ confirm khi all items RESERVED.
-
-            } else if (res != null && res == 2L) {
-                log.info("[INV] Skip duplicate orderId#productId={}#{}", orderId, productId);
-
-            } else {
-                // STOCK_REJECTED (per item)
-                var rejected = StockRejected.builder()
-                        .orderId(orderId)
-                        .productId(productId)
-                        .requested(quantity)
-                        .reason("INSUFFICIENT_STOCK")
-                        .build();
-                outboxRepo.save(OutboxEvent.builder()
-                        .aggregateType("order")
-                        .aggregateId(orderId)
-                        .eventType("STOCK_REJECTED")
-                        .payload(om.writeValueAsString(rejected))
-                        .status("NEW")
-                        .build());
-
-                log.info("[INV] Insufficient stock productId={}, need={} (orderId={})", productId, quantity, orderId);
-                // ❌ Không tự ORDER_CANCELLED: OrderService sẽ tổng hợp & phát release-stock nếu cần.
+            for (int i = 0; i < items.size(); i++) {
+                var it = items.get(i);
+                long r = res[i];
+
+                if (r == 1L || r == 4L) {
+                    // 1) STOCK_RESERVED (per item)
+                    (r == 1L ? out : direct).add(outboxRow("order", orderId, "STOCK_RESERVED", StockReserved.builder()
+                            .orderId(orderId)
+                            .productId(it.getProductId())
+                            .size(it.getSize())
+                            .quantity(it.getQuantity())
+                            .build()));
+
+                    // 2) PRODUCT_STOCK_DECREASED (per item) – cho product-service trừ DB kho chính
+                    out.add(outboxRow("product", it.getProductId(), "PRODUCT_STOCK_DECREASED", Map.of(
+                            "productId", it.getProductId(),
+                            "quantity", it.getQuantity()
+                    )));
+
+                    log.info("[INV] Reserved OK productId={}, qty={} (orderId={})", it.getProductId(), it.getQuantity(), orderId);
+
+                } else if (r == 2L) {
+                    log.info("[INV] Skip duplicate orderId#productId={}#{}", orderId, it.getProductId());
+
+                } else if (r == 0L) {
+                    // STOCK_REJECTED (per item thiếu hàng)
+                    out.add(outboxRow("order", orderId, "STOCK_REJECTED", StockRejected.builder()
+                            .orderId(orderId)
+                            .productId(it.getProductId())
+                            .size(it.getSize())
+                            .requested(it.getQuantity())
+                            .reason("INSUFFICIENT_STOCK")
+                            .build()));
+
+                    log.info("[INV] Insufficient stock productId={}, need={} (orderId={})", it.getProductId(), it.getQuantity(), orderId);
+                    // ❌ Không tự ORDER_CANCELLED: OrderService sẽ tổng hợp & huỷ order.
+
+                } else {
+                    log.info("[INV] Not reserved productId={}, qty={} vì order bị từ chối (orderId={})",
+                            it.getProductId(), it.getQuantity(), orderId);
+                }
             }
         } catch (Exception e) {
-            log.error("[INV] reserveOneItem failed", e);
+            log.error("[INV] completeReservation failed", e);
             throw new RuntimeException(e);
         }
+
+        if (rejected) {
+            log.info("[INV] Order rejected, không trừ dòng nào (orderId={}, items={})", orderId, items.size());
+        } else if (Arrays.stream(res).anyMatch(r -> r == 1L)) {
+            // dòng giữ trên MySQL được ghi hạn khi FallbackReplayer đưa vào Redis
+            holds.ifAvailable(h -> h.schedule(orderId, holdDeadline));
+        }
     }
 
-    /* ==================== Product sync (giữ nguyên logic của bạn) ==================== */
+    /* ==================== Order reserve/release ==================== */
 
     @KafkaListener(
-            topics = "product-created-topic",
+            id = StockWarmup.ORDER_CREATED_LISTENER,
+            autoStartup = "false", // StockWarmup bật sau khi nạp xong key stock:*
+            topics = "order-created",
             groupId = "inventory-group",
-            containerFactory = "productCreatedStringFactory" // dùng StringDeserializer
-    )
+            containerFactory = "orderCreatedKafkaListenerFactory")
     @Transactional
-    public void handleProductCreated(String message) {
-        try {
-            // Nếu payload bị bọc thêm lớp quote (\"...\"), bỏ bọc trước khi parse
-            String json = (message != null && !message.isEmpty() && message.charAt(0) == '"')
-                    ? om.readValue(message, String.class)
-                    : message;
-
-            ProductCreatedEvent event = om.readValue(json, ProductCreatedEvent.class);
-            log.info("[INV-INIT] ProductCreatedEvent: {}", event);
-
-            // UPSERT inventory theo quantity ban đầu từ product
-            Inventory inv = inventoryRepository.findByProductId(event.getProductId())
-                    .orElseGet(() -> new Inventory(event.getProductId(), 0));
-            int old = inv.getQuantity();
-            inv.setQuantity(Math.max(0, event.getQuantity()));
-            inventoryRepository.save(inv);
-            log.info("[INV-INIT] Upsert inventory productId={}, {} -> {}", event.getProductId(), old, inv.getQuantity());
-
-            // Sync Redis key
-            ensureRedisStockKey(event.getProductId());
-            redis.opsForValue().set(stockKey(event.getProductId()), String.valueOf(inv.getQuantity()));
-            log.info("[INV-INIT] Sync Redis {} = {}", stockKey(event.getProductId()), inv.getQuantity());
+    public void onOrderCreated(List<OrderCreated> evts) {
+        log.info("[INV] Received order-created batch size={}", evts.size());
 
-        } catch (Exception e) {
-            log.error("[INV-INIT] Failed to process ProductCreatedEvent, payload={}", message, e);
-            throw new RuntimeException(e);
+        List<StockEngine.OrderLines> batch = new ArrayList<>(evts.size());
+        for (OrderCreated evt : evts) {
+            List<OrderCreated.Item> items = validItems(evt);
+            if (!items.isEmpty()) batch.add(new StockEngine.OrderLines(evt.getOrderId(), items));
+        }
+        if (batch.isEmpty()) return;
+
+        ReservationHoldScheduler scheduler = holds.getIfAvailable();
+        long holdDeadline = scheduler == null ? 0L : scheduler.newDeadline();
+        List<long[]> results = engine.reserve(batch, holdDeadline);
+        reemitLostReservations(batch, results);
+        List<OutboxEvent> out = new ArrayList<>();
+        List<OutboxEvent> direct = new ArrayList<>();
+        for (int j = 0; j < batch.size(); j++) {
+            completeReservation(batch.get(j).orderId(), batch.get(j).items(), results.get(j), holdDeadline, out, direct);
         }
-    }
 
-    @KafkaListener(
-            topics = "product-updated-topic",
-            groupId = "inventory-group",
-            containerFactory = "productUpdatedStringFactory" // dùng StringDeserializer
-    )
-    @Transactional
-    public void handleProductUpdated(String message) {
+        // Outbox của cả lô: 1 JDBC batch insert thay vì 1 INSERT cho mỗi dòng
+        outboxWriter.insertAll(out);
         try {
-            // Bỏ bọc nếu có
-            String json = (message != null && !message.isEmpty() && message.charAt(0) == '"')
-                    ? om.readValue(message, String.class)
-                    : message;
-
-            ProductUpdateEvent evt = om.readValue(json, ProductUpdateEvent.class);
-            log.info("[INV-UPDATE] ProductUpdateEvent: {}", evt);
-
-            Inventory inv = inventoryRepository.findByProductId(evt.getProductId())
-                    .orElseGet(() -> new Inventory(evt.getProductId(), 0));
-            int old = inv.getQuantity();
-            inv.setQuantity(Math.max(0, evt.getQuantity())); // set theo product
-            inventoryRepository.save(inv);
-            log.info("[INV-UPDATE] Sync quantity productId={} | {} -> {}", evt.getProductId(), old, inv.getQuantity());
-
-            // Sync Redis cho khớp DB
-            ensureRedisStockKey(evt.getProductId());
-            redis.opsForValue().set(stockKey(evt.getProductId()), String.valueOf(inv.getQuantity()));
-            log.info("[INV-UPDATE] Sync Redis {} = {}", stockKey(evt.getProductId()), inv.getQuantity());
-
+            saveProjected(direct);
         } catch (Exception e) {
-            log.error("[INV-UPDATE] Failed to process ProductUpdateEvent, payload={}", message, e);
+            log.error("[INV] saveProjected failed", e);
             throw new RuntimeException(e);
         }
+        log.info("[INV] Reserved batch orders={}, outbox rows={}", batch.size(), out.size() + direct.size());
     }
 
-    @KafkaListener(
-            topics = "product-deleted-topic",
-            groupId = "inventory-group",
-            containerFactory = "productDeletedStringFactory" // factory dùng StringDeserializer
-    )
-    @Transactional
-    public void handleProductDeleted(String message) {
-        try {
-            // Nếu payload bị bọc thêm lớp quote (\"...\"), bỏ bọc rồi mới parse
-            String json = (message != null && !message.isEmpty() && message.charAt(0) == '"')
-                    ? om.readValue(message, String.class)
-                    : message;
-
-            ProductCreatedEvent evt = om.readValue(json, ProductCreatedEvent.class);
-            String productId = evt.getProductId();
-            if (productId == null || productId.isBlank()) {
-                log.warn("[INV-DEL] productId rỗng trong payload: {}", message);
-                return;
+    /**
+     * Dòng duplicate (2) mà DB chưa có STOCK_RESERVED: lần giao trước đã giữ trên Redis nhưng transaction
+     * ghi outbox bị rollback, nên coi như vừa giữ (1) để ghi lại outbox, không thì saga của cả lô bị treo.
+     * Dòng đã có outbox là duplicate thật, giữ nguyên để không chiếu/phát 2 lần.
+     */
+    private void reemitLostReservations(List<StockEngine.OrderLines> batch, List<long[]> results) {
+        List<String> orderIds = new ArrayList<>();
+        for (int j = 0; j < batch.size(); j++) {
+            if (Arrays.stream(results.get(j)).anyMatch(r -> r == 2L)) orderIds.add(batch.get(j).orderId());
+        }
+        if (orderIds.isEmpty()) return;
+
+        Set<String> recorded = new HashSet<>();
+        for (OutboxEvent e : outboxRepo.findByAggregateIdInAndEventType(orderIds, "STOCK_RESERVED")) {
+            try {
+                StockReserved r = om.readValue(e.getPayload(), StockReserved.class);
+                recorded.add(lineKey(r.getOrderId(), r.getProductId(), r.getSize()));
+            } catch (Exception ex) {
+                log.warn("[INV] Bỏ qua outbox id={} không đọc được payload", e.getId(), ex);
+            }
+        }
+        for (int j = 0; j < batch.size(); j++) {
+            var o = batch.get(j);
+            long[] res = results.get(j);
+            for (int i = 0; i < res.length; i++) {
+                var it = o.items().get(i);
+                if (res[i] == 2L && !recorded.contains(lineKey(o.orderId(), it.getProductId(), it.getSize()))) {
+                    log.warn("[INV] Re-emit STOCK_RESERVED orderId={}, productId={}, size={} (outbox trước đã rollback)",
+                            o.orderId(), it.getProductId(), it.getSize());
+                    res[i] = 1L;
+                }
             }
-
-            // Xoá inventory record
-            inventoryRepository.findByProductId(productId).ifPresent(inv -> {
-                inventoryRepository.delete(inv);
-                log.info("[INV-DEL] Deleted inventory for productId={}", productId);
-            });
-
-            // Xoá Redis key
-            String key = stockKey(productId);
-            redis.delete(key);
-            log.info("[INV-DEL] Deleted Redis key {}", key);
-
-        } catch (Exception e) {
-            log.error("[INV-DEL] Failed to process ProductDeletedEvent, payload={}", message, e);
-            throw new RuntimeException(e);
         }
     }
 
-    /* ==================== Order reserve/release ==================== */
-
-    @KafkaListener(
-            topics = "order-created",
-            groupId = "inventory-group",
-            containerFactory = "orderCreatedKafkaListenerFactory")
-    @Transactional
-    public void onOrderCreated(OrderCreated evt) {
-        log.info("[INV] Received order-created: {}", evt);
+    private static String lineKey(String orderId, String productId, String size) {
+        return orderId + "|" + productId + "#" + (size == null ? "" : size);
+    }
 
+    private List<OrderCreated.Item> validItems(OrderCreated evt) {
         // Multi-items path
         if (evt.getItems() != null && !evt.getItems().isEmpty()) {
+            List<OrderCreated.Item> valid = new ArrayList<>();
             evt.getItems().forEach(it -> {
                 if (it.getQuantity() == null || it.getQuantity() <= 0) {
                     log.warn("[INV] Bỏ qua item quantity không hợp lệ: orderId={}, productId={}, qty={}",
                             evt.getOrderId(), it.getProductId(), it.getQuantity());
                     return;
                 }
-                reserveOneItem(evt.getOrderId(), evt.getUserId(), it.getProductId(), it.getQuantity());
+                valid.add(it);
             });
-            return;
+            return valid;
         }
 
         // Fallback: schema cũ (1 item trong event)
         if (evt.getProductId() == null || evt.getQuantity() == null || evt.getQuantity() <= 0) {
             log.warn("[INV] Bỏ qua orderId={} vì payload schema cũ không hợp lệ.", evt.getOrderId());
-            return;
+            return List.of();
         }
-        reserveOneItem(evt.getOrderId(), evt.getUserId(), evt.getProductId(), evt.getQuantity());
+        return List.of(OrderCreated.Item.builder()
+                .productId(evt.getProductId())
+                .quantity(evt.getQuantity())
+                .build());
     }
 
     @KafkaListener(
+            id = StockWarmup.RELEASE_STOCK_LISTENER,
+            autoStartup = "false", // StockWarmup bật sau khi nạp xong key stock:*
             topics = "release-stock",
             groupId = "inventory-group",
             containerFactory = "releaseStockKafkaListenerFactory")
     @Transactional
     public void onReleaseStock(ReleaseStock evt) {
         log.info("[INV] ReleaseStock: {}", evt);
+        releaseLine(evt.getOrderId(), evt.getProductId(), evt.getSize(), evt.getQuantity());
+    }
 
-        ensureRedisStockKey(evt.getProductId());
-
-        var keys = List.of(stockKey(evt.getProductId()), seenKeyItem(evt.getOrderId(), evt.getProductId()));
-        var args = List.of(evt.getOrderId() + "#" + evt.getProductId(), String.valueOf(evt.getQuantity()));
-        redis.execute(releaseScript, keys, args.toArray());
+    /**
+     * Trả hàng 1 dòng của order qua StockEngine và ghi STOCK_RELEASED vào outbox.
+     * Dùng chung cho release-stock và khi hold của order hết hạn; phải chạy trong transaction.
+     * @return false nếu dòng đã được trả trước đó (duplicate)
+     */
+    public boolean releaseLine(String orderId, String productId, String size, int quantity) {
+        long res = engine.release(orderId, productId, size, quantity); // 1=OK, 2=duplicate, 4=OK trên MySQL
+        if (res == 2L) {
+            log.info("[INV] Skip duplicate release orderId={}, productId={}, size={}", orderId, productId, size);
+            return false;
+        }
 
         try {
-            outboxRepo.save(OutboxEvent.builder()
-                    .aggregateType("order")
-                    .aggregateId(evt.getOrderId())
-                    .eventType("STOCK_RELEASED")
-                    .payload(om.writeValueAsString(Map.of(
-                            "orderId", evt.getOrderId(),
-                            "productId", evt.getProductId(),
-                            "quantity", evt.getQuantity()
-                    )))
-                    .status("NEW")
-                    .build());
+            // size để engine memory dựng lại field inv:rel khi khởi động (có thể null nên không dùng Map.of)
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("orderId", orderId);
+            payload.put("productId", productId);
+            payload.put("size", size);
+            payload.put("quantity", quantity);
+            if (res == 4L) saveProjected(List.of(outboxRow("order", orderId, "STOCK_RELEASED", payload)));
+            else saveOutbox("order", orderId, "STOCK_RELEASED", payload);
         } catch (Exception e) {
-            log.error("[INV] onReleaseStock JSON failed", e);
+            log.error("[INV] releaseLine JSON failed", e);
             throw new RuntimeException(e);
         }
 
-        log.info("[INV] Released {} for productId={} (orderId={})", evt.getQuantity(), evt.getProductId(), evt.getOrderId());
+        log.info("[INV] Released {} for productId={} (orderId={})", quantity, productId, orderId);
+        return true;
     }
 }
@@ -1,132 +1,96 @@
 package com.store.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.store.dto.ProductCreatedEvent;
-import com.store.dto.ProductUpdateEvent;
+import com.store.engine.StockEngine;
 import com.store.model.Inventory;
 import com.store.repository.InventoryRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.*;
+
+/**
+ * Đồng bộ tồn kho từ product-service: 1 listener batch duy nhất cho product-created/updated/deleted.
+ * Mỗi lần poll chỉ giữ trạng thái cuối cùng theo productId (created/updated = set tuyệt đối quantity,
+ * deleted = xoá), rồi ghi 1 lần saveAll + 1 lần DELETE IN + 1 lần StockEngine.overwrite cho cả lô.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class InventoryService {
 
+    private static final String DELETED_TOPIC = "product-deleted-topic";
+
     private final InventoryRepository inventoryRepository;
-    private final StringRedisTemplate redis;
+    private final StockEngine engine;
     private final ObjectMapper om = new ObjectMapper();
 
-    private String stockKey(String productId) { return "stock:" + productId; }
-
-    // ========= product-created => tạo/khởi tạo tồn kho tuyệt đối =========
     @KafkaListener(
-            topics = "product-created-topic",
-            groupId = "inventory-init-group",
-            containerFactory = "productCreatedStringFactory" // giữ nguyên nếu bạn đã cấu hình
-    )
-    @Transactional
-    public void onProductCreated(String payload) {
-        try {
-            // payload đôi khi bị wrap thành chuỗi JSON
-            String json = (payload != null && !payload.isEmpty() && payload.charAt(0) == '"')
-                    ? om.readValue(payload, String.class)
-                    : payload;
-
-            ProductCreatedEvent evt = om.readValue(json, ProductCreatedEvent.class);
-
-            String productId = evt.getProductId();
-            if (productId == null || productId.isBlank()) {
-                log.warn("[INV-INIT] productId rỗng trong payload: {}", payload);
-                return;
-            }
-            int initialQty = Math.max(0, evt.getQuantity());
-
-            Inventory inv = inventoryRepository.findByProductId(productId)
-                    .orElseGet(() -> Inventory.builder().productId(productId).quantity(0).build());
-
-            int old = inv.getQuantity();
-            inv.setQuantity(initialQty);
-            inventoryRepository.save(inv);
-
-            redis.opsForValue().set(stockKey(productId), String.valueOf(initialQty));
-
-            log.info("[INV-INIT] Upsert inventory productId={}, {} -> {} (Redis OK)", productId, old, initialQty);
-        } catch (Exception e) {
-            log.error("[INV-INIT] Cannot handle product-created payload: {}", payload, e);
-        }
-    }
-
-    // ========= product-updated => đồng bộ tuyệt đối quantity =========
-    @KafkaListener(
-            topics = "product-updated-topic",
+            topics = {"product-created-topic", "product-updated-topic", DELETED_TOPIC},
             groupId = "inventory-sync-group",
-            containerFactory = "productCreatedStringFactory"
+            containerFactory = "productSyncBatchFactory"
     )
     @Transactional
-    public void onProductUpdated(String payload) {
-        try {
-            String json = (payload != null && !payload.isEmpty() && payload.charAt(0) == '"')
-                    ? om.readValue(payload, String.class)
-                    : payload;
-
-            ProductUpdateEvent evt = om.readValue(json, ProductUpdateEvent.class);
-
-            String productId = evt.getProductId();
-            if (productId == null || productId.isBlank()) {
-                log.warn("[INV-UPDATE] productId rỗng trong payload: {}", payload);
-                return;
+    public void onProductEvents(List<ConsumerRecord<String, String>> records) {
+        // Ba topic khác nhau nên sắp theo timestamp để "cái sau thắng" đúng thứ tự product-service phát
+        List<ConsumerRecord<String, String>> sorted = new ArrayList<>(records);
+        sorted.sort(Comparator.comparingLong(ConsumerRecord::timestamp));
+
+        // productId -> quantity mới, hoặc null nếu product bị xoá
+        Map<String, Integer> latest = new LinkedHashMap<>();
+        for (var r : sorted) {
+            try {
+                // payload đôi khi bị wrap thành chuỗi JSON
+                String payload = r.value();
+                String json = (payload != null && !payload.isEmpty() && payload.charAt(0) == '"')
+                        ? om.readValue(payload, String.class)
+                        : payload;
+                JsonNode node = om.readTree(json);
+                String productId = node.hasNonNull("productId") ? node.get("productId").asText() : node.path("id").asText(null);
+                if (productId == null || productId.isBlank()) {
+                    log.warn("[INV-SYNC] productId rỗng trong payload: {} (topic={})", payload, r.topic());
+                    continue;
+                }
+                latest.remove(productId); // giữ thứ tự theo lần xuất hiện cuối
+                latest.put(productId, DELETED_TOPIC.equals(r.topic()) ? null : Math.max(0, node.path("quantity").asInt(0)));
+            } catch (Exception e) {
+                log.error("[INV-SYNC] Cannot parse payload: {} (topic={})", r.value(), r.topic(), e);
             }
-            int newQty = Math.max(0, evt.getQuantity());
-
-            Inventory inv = inventoryRepository.findByProductId(productId)
-                    .orElseGet(() -> Inventory.builder().productId(productId).quantity(0).build());
-
-            int old = inv.getQuantity();
-            inv.setQuantity(newQty);
-            inventoryRepository.save(inv);
-
-            redis.opsForValue().set(stockKey(productId), String.valueOf(newQty));
-
-            log.info("[INV-UPDATE] Sync quantity productId={} | {} -> {} (Redis OK)", productId, old, newQty);
-        } catch (Exception e) {
-            log.error("[INV-UPDATE] Cannot handle payload: {}", payload, e);
         }
-    }
-
-    // ========= product-deleted => xóa inventory + key Redis =========
-    @KafkaListener(
-            topics = "product-deleted-topic",
-            groupId = "inventory-sync-group",
-            containerFactory = "productCreatedStringFactory"
-    )
-    @Transactional
-    public void onProductDeleted(String payload) {
-        try {
-            String json = (payload != null && !payload.isEmpty() && payload.charAt(0) == '"')
-                    ? om.readValue(payload, String.class)
-                    : payload;
-
-            // Payload xóa hiện đang tái dụng ProductCreatedEvent (chỉ cần id)
-            ProductCreatedEvent evt = om.readValue(json, ProductCreatedEvent.class);
-
-            String productId = evt.getProductId();
-            if (productId == null || productId.isBlank()) {
-                log.warn("[INV-DELETE] productId rỗng trong payload: {}", payload);
-                return;
-            }
+        if (latest.isEmpty()) return;
+
+        Map<String, Integer> upserts = new HashMap<>();
+        List<String> deletes = new ArrayList<>();
+        latest.forEach((id, qty) -> {
+            if (qty == null) deletes.add(id);
+            else upserts.put(id, qty);
+        });
+
+        // 1) DB: 1 SELECT IN + 1 saveAll cho upsert, 1 DELETE IN cho xoá
+        if (!upserts.isEmpty()) {
+            Map<String, Inventory> existing = new HashMap<>();
+            inventoryRepository.findAllById(upserts.keySet()).forEach(inv -> existing.put(inv.getProductId(), inv));
+            List<Inventory> toSave = new ArrayList<>(upserts.size());
+            upserts.forEach((id, qty) -> {
+                Inventory inv = existing.getOrDefault(id, Inventory.builder().productId(id).quantity(0).build());
+                inv.setQuantity(qty);
+                toSave.add(inv);
+            });
+            inventoryRepository.saveAll(toSave);
+        }
+        if (!deletes.isEmpty()) {
+            inventoryRepository.deleteAllByIdInBatch(deletes);
+        }
 
-            inventoryRepository.findByProductId(productId).ifPresent(inventoryRepository::delete);
-            redis.delete(stockKey(productId));
+        // 2) StockEngine: Redis là 1 pipeline cho cả lô
+        engine.overwrite(upserts, deletes);
 
-            log.info("[INV-DELETE] Deleted inventory & Redis for productId={}", productId);
-        } catch (Exception e) {
-            log.error("[INV-DELETE] Cannot handle payload: {}", payload, e);
-            throw new RuntimeException(e);
-        }
+        log.info("[INV-SYNC] Batch records={}, products={}, upserted={}, deleted={}",
+                records.size(), latest.size(), upserts.size(), deletes.size());
     }
 }
@@ -0,0 +1,58 @@
+package com.store.warmup;
+
+import com.store.engine.StockEngine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Nạp toàn bộ tồn kho từ bảng inventory vào StockEngine khi khởi động (và khi admin gọi lại);
+ * với Redis là đọc theo trang (keyset theo productId) và ghi SETNX bằng pipeline Lettuce.
+ * Listener order-created/release-stock để autoStartup=false và chỉ được bật sau khi warm-up xong,
+ * nhờ vậy hot path giữ hàng không cần GET kiểm tra key trước nữa.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StockWarmup {
+
+    public static final String ORDER_CREATED_LISTENER = "inv-order-created";
+    public static final String RELEASE_STOCK_LISTENER = "inv-release-stock";
+
+    private final StockEngine engine;
+    private final KafkaListenerEndpointRegistry registry;
+
+    private volatile boolean ready = false;
+
+    public boolean isReady() { return ready; }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        try {
+            warmUp();
+        } catch (Exception e) {
+            // Redis/DB lỗi lúc khởi động: vẫn bật listener, hot path sẽ tự nạp key khi bị từ chối
+            log.error("[WARMUP] Stock warm-up failed, starting listeners anyway", e);
+        }
+        ready = true;
+        startListener(ORDER_CREATED_LISTENER);
+        startListener(RELEASE_STOCK_LISTENER);
+    }
+
+    /** @return số product vừa được nạp vào engine (key/bộ đếm đã có thì giữ nguyên giá trị) */
+    public synchronized long warmUp() {
+        return engine.warmUp();
+    }
+
+    private void startListener(String id) {
+        MessageListenerContainer c = registry.getListenerContainer(id);
+        if (c != null && !c.isRunning()) {
+            c.start();
+            log.info("[WARMUP] Started listener {}", id);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.store.engine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.store.dto.OrderCreated;
+import com.store.dto.StockReserved;
+import com.store.idempotency.OrderIdempotencyStore;
+import com.store.model.Inventory;
+import com.store.model.OutboxEvent;
+import com.store.outbox.OutboxWriter;
+import com.store.repository.InventoryRepository;
+import com.store.repository.OutboxRepository;
+import com.store.repository.StockLedgerRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Restart của engine memory: dòng STOCK_RESERVED ghi qua OutboxWriter (JDBC, không qua @PrePersist)
+ * phải mang created_at để warm-up dựng lại idempotency, nếu không order-created giao lại sẽ giữ hàng 2 lần.
+ */
+class InMemoryStockEngineWarmUpTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private InMemoryStockEngine engine;
+
+    @AfterEach
+    void tearDown() {
+        if (engine != null) engine.stop();
+    }
+
+    // "Bảng" outbox_event: mỗi dòng được dựng lại từ đúng các tham số OutboxWriter bind vào INSERT
+    @SuppressWarnings("unchecked")
+    private List<OutboxEvent> writeThroughOutboxWriter(List<OutboxEvent> rows) throws Exception {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        List<OutboxEvent> table = new ArrayList<>();
+        when(jdbc.batchUpdate(anyString(), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenAnswer(inv -> {
+                    String sql = inv.getArgument(0);
+                    assertTrue(sql.contains("created_at"), "INSERT phải ghi created_at");
+                    ParameterizedPreparedStatementSetter<OutboxEvent> pss = inv.getArgument(3);
+                    for (OutboxEvent e : (Collection<OutboxEvent>) inv.getArgument(1)) {
+                        PreparedStatement ps = mock(PreparedStatement.class);
+                        pss.setValues(ps, e);
+                        ArgumentCaptor<String> str = ArgumentCaptor.forClass(String.class);
+                        ArgumentCaptor<Timestamp> ts = ArgumentCaptor.forClass(Timestamp.class);
+                        verify(ps, times(5)).setString(anyInt(), str.capture());
+                        verify(ps).setTimestamp(eq(6), ts.capture());
+                        List<String> v = str.getAllValues();
+                        table.add(OutboxEvent.builder()
+                                .id((long) table.size() + 1)
+                                .aggregateType(v.get(0))
+                                .aggregateId(v.get(1))
+                                .eventType(v.get(2))
+                                .payload(v.get(3))
+                                .status(v.get(4))
+                                .createdAt(ts.getValue().toInstant())
+                                .build());
+                    }
+                    return new int[0][];
+                });
+        new OutboxWriter(jdbc).insertAll(rows);
+        return table;
+    }
+
+    @Test
+    void redeliveredOrderIsDuplicateAfterRestart() throws Exception {
+        // lần chạy trước: o1 giữ 2 của p1, dòng STOCK_RESERVED đi qua OutboxWriter như InventoryListener
+        List<OutboxEvent> table = writeThroughOutboxWriter(List.of(OutboxEvent.builder()
+                .aggregateType("order")
+                .aggregateId("o1")
+                .eventType("STOCK_RESERVED")
+                .payload(om.writeValueAsString(StockReserved.builder()
+                        .orderId("o1").productId("p1").size("M").quantity(2).build()))
+                .status("SENT")
+                .build()));
+
+        InventoryRepository inventoryRepository = mock(InventoryRepository.class);
+        when(inventoryRepository.findByProductIdGreaterThanOrderByProductIdAsc(anyString(), any()))
+                .thenReturn(List.of(Inventory.builder().productId("p1").quantity(8).build()));
+        OutboxRepository outboxRepository = mock(OutboxRepository.class);
+        when(outboxRepository.findByStatusAndEventTypeInAndIdGreaterThanOrderByIdAsc(any(), any(), any(), any()))
+                .thenReturn(List.of());
+        // created_at > since AND id > after, như câu query
+        when(outboxRepository.findByEventTypeInAndCreatedAtAfterAndIdGreaterThanOrderByIdAsc(any(), any(), any(), any()))
+                .thenAnswer(inv -> {
+                    Collection<String> types = inv.getArgument(0);
+                    Instant since = inv.getArgument(1);
+                    Long after = inv.getArgument(2);
+                    return table.stream()
+                            .filter(e -> types.contains(e.getEventType()))
+                            .filter(e -> e.getCreatedAt() != null && e.getCreatedAt().isAfter(since))
+                            .filter(e -> e.getId() > after)
+                            .toList();
+                });
+
+        engine = new InMemoryStockEngine(inventoryRepository, outboxRepository,
+                mock(StockLedgerRepository.class), new OrderIdempotencyStore());
+        ReflectionTestUtils.setField(engine, "shardCount", 2);
+        ReflectionTestUtils.setField(engine, "ringSize", 16);
+        ReflectionTestUtils.setField(engine, "idleParkNanos", 50_000L);
+        ReflectionTestUtils.setField(engine, "idemTtlSeconds", 3600L);
+        ReflectionTestUtils.setField(engine, "pageSize", 100);
+        engine.start();
+        assertEquals(1L, engine.warmUp());
+
+        OrderCreated.Item line = OrderCreated.Item.builder().productId("p1").size("M").quantity(2).build();
+        List<long[]> res = engine.reserve(List.of(new StockEngine.OrderLines("o1", List.of(line))), 0L);
+        assertArrayEquals(new long[]{2}, res.get(0), "order-created giao lại phải là duplicate");
+
+        // tồn không bị trừ lần 2: order khác vẫn lấy đủ 8
+        OrderCreated.Item all = OrderCreated.Item.builder().productId("p1").size("M").quantity(8).build();
+        res = engine.reserve(List.of(new StockEngine.OrderLines("o2", List.of(all))), 0L);
+        assertArrayEquals(new long[]{1}, res.get(0));
+    }
+}
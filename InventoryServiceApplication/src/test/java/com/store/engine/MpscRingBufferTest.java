@@ -0,0 +1,76 @@
+package com.store.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    void rejectsCapacityNotPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new MpscRingBuffer<>(6));
+        assertThrows(IllegalArgumentException.class, () -> new MpscRingBuffer<>(1));
+    }
+
+    @Test
+    void fifoAndFullAcrossWrapAround() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+        assertNull(ring.poll());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) assertTrue(ring.offer(round * 10 + i));
+            assertFalse(ring.offer(-1), "đầy thì offer trả false");
+            for (int i = 0; i < 4; i++) assertEquals(round * 10 + i, ring.poll());
+            assertNull(ring.poll());
+        }
+    }
+
+    @Test
+    void multiProducerKeepsPerProducerOrderWithoutLoss() throws Exception {
+        int producers = 4;
+        int perProducer = 100_000;
+        MpscRingBuffer<long[]> ring = new MpscRingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long seq = 0; seq < perProducer; seq++) {
+                    long[] e = {id, seq};
+                    while (!ring.offer(e)) Thread.onSpinWait();
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+
+        long[] next = new long[producers];
+        int received = 0;
+        start.countDown();
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (received < producers * perProducer) {
+            long[] e = ring.poll();
+            if (e == null) {
+                assertTrue(System.nanoTime() < deadline, "mất phần tử: mới nhận " + received);
+                Thread.onSpinWait();
+                continue;
+            }
+            int id = (int) e[0];
+            assertEquals(next[id], e[1], "sai thứ tự của producer " + id);
+            next[id]++;
+            received++;
+        }
+        for (Thread t : threads) t.join();
+        assertNull(ring.poll(), "không được có phần tử thừa");
+        for (long n : next) assertEquals(perProducer, n);
+    }
+}
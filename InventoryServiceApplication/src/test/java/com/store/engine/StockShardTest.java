@@ -0,0 +1,135 @@
+package com.store.engine;
+
+import com.store.dto.OrderCreated;
+import com.store.idempotency.OrderIdempotencyStore;
+import com.store.repository.InventoryRepository;
+import com.store.repository.OutboxRepository;
+import com.store.repository.StockLedgerRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class StockShardTest {
+
+    // "p1".hashCode() lẻ, "p2".hashCode() chẵn: với 2 shard thì nằm ở 2 shard khác nhau
+    private static final String P1 = "p1";
+    private static final String P2 = "p2";
+
+    private StockShard shard;
+    private InMemoryStockEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        shard = new StockShard(0, 16, 60_000, 50_000);
+
+        engine = new InMemoryStockEngine(mock(InventoryRepository.class), mock(OutboxRepository.class),
+                mock(StockLedgerRepository.class), new OrderIdempotencyStore());
+        ReflectionTestUtils.setField(engine, "shardCount", 2);
+        ReflectionTestUtils.setField(engine, "ringSize", 16);
+        ReflectionTestUtils.setField(engine, "idleParkNanos", 50_000L);
+        ReflectionTestUtils.setField(engine, "idemTtlSeconds", 60L);
+        engine.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        shard.stop();
+        engine.stop();
+    }
+
+    private <T> T on(Supplier<T> op) {
+        return shard.submit(op).join();
+    }
+
+    private long[] reserve(String orderId, String[] productIds, int[] qty) {
+        String[] fields = new String[productIds.length];
+        for (int i = 0; i < productIds.length; i++) fields[i] = "inv:res:" + productIds[i] + "#";
+        return on(() -> shard.reserveLocal(orderId, productIds, qty, fields));
+    }
+
+    @Test
+    void reserveIsAllOrNothingWithinShard() {
+        on(() -> shard.setLocal("a", 5));
+        on(() -> shard.setLocal("b", 1));
+
+        assertArrayEquals(new long[]{3, 0}, reserve("o1", new String[]{"a", "b"}, new int[]{2, 2}));
+        // không dòng nào bị trừ: order khác vẫn lấy đủ 5 của a
+        assertArrayEquals(new long[]{1}, reserve("o2", new String[]{"a"}, new int[]{5}));
+        assertArrayEquals(new long[]{0}, reserve("o3", new String[]{"a"}, new int[]{1}));
+    }
+
+    @Test
+    void duplicateReserveAndReleaseAreSkipped() {
+        on(() -> shard.setLocal("a", 3));
+        assertArrayEquals(new long[]{1}, reserve("o1", new String[]{"a"}, new int[]{2}));
+        assertArrayEquals(new long[]{2}, reserve("o1", new String[]{"a"}, new int[]{2}));
+
+        assertEquals(1L, on(() -> shard.releaseLocal("o1", "a", "inv:res:a#", "inv:rel:a#", 5)));
+        assertEquals(2L, on(() -> shard.releaseLocal("o1", "a", "inv:res:a#", "inv:rel:a#", 5)));
+        // release bị chặn ở số đang giữ (2), tồn về lại 3
+        assertArrayEquals(new long[]{1}, reserve("o2", new String[]{"a"}, new int[]{3}));
+        assertArrayEquals(new long[]{0}, reserve("o3", new String[]{"a"}, new int[]{1}));
+    }
+
+    @Test
+    void restoredIdempotencySkipsRedelivery() {
+        on(() -> shard.setLocal("a", 10));
+        on(() -> shard.restoreIdemLocal("o1", "inv:res:a#", null, 2, System.currentTimeMillis()));
+        on(() -> shard.restoreIdemLocal("o2", "inv:res:a#", null, 3, System.currentTimeMillis()));
+        on(() -> shard.restoreIdemLocal("o2", "inv:res:a#", "inv:rel:a#", 3, System.currentTimeMillis()));
+
+        assertArrayEquals(new long[]{2}, reserve("o1", new String[]{"a"}, new int[]{2}));
+        assertEquals(2L, on(() -> shard.releaseLocal("o2", "a", "inv:res:a#", "inv:rel:a#", 3)));
+        // o1 vẫn còn giữ 2, release lần đầu được trả
+        assertEquals(1L, on(() -> shard.releaseLocal("o1", "a", "inv:res:a#", "inv:rel:a#", 2)));
+        // tồn không bị restore đụng tới: 10 + 2
+        assertArrayEquals(new long[]{1}, reserve("o3", new String[]{"a"}, new int[]{12}));
+    }
+
+    private static OrderCreated.Item item(String productId, int qty) {
+        return OrderCreated.Item.builder().productId(productId).quantity(qty).build();
+    }
+
+    @Test
+    void rejectedOrderIsUndoneAcrossShards() {
+        engine.overwrite(Map.of(P1, 5, P2, 1), List.of());
+
+        List<long[]> res = engine.reserve(List.of(
+                new StockEngine.OrderLines("o1", List.of(item(P1, 3), item(P2, 2)))), 0L);
+        assertArrayEquals(new long[]{3, 0}, res.get(0));
+
+        // phần đã giữ ở shard của p1 được hoàn lại và idempotency của o1 được gỡ: giao lại o1 khi đã đủ hàng thì giữ được
+        engine.overwrite(Map.of(P2, 2), List.of());
+        res = engine.reserve(List.of(
+                new StockEngine.OrderLines("o1", List.of(item(P1, 3), item(P2, 2)))), 0L);
+        assertArrayEquals(new long[]{1, 1}, res.get(0));
+
+        res = engine.reserve(List.of(
+                new StockEngine.OrderLines("o2", List.of(item(P1, 2))),
+                new StockEngine.OrderLines("o3", List.of(item(P1, 1)))), 0L);
+        assertArrayEquals(new long[]{1}, res.get(0));
+        assertArrayEquals(new long[]{0}, res.get(1));
+    }
+
+    @Test
+    void acceptedOrderReservesOnEveryShard() {
+        engine.overwrite(Map.of(P1, 2, P2, 2), List.of());
+
+        List<long[]> res = engine.reserve(List.of(
+                new StockEngine.OrderLines("o1", List.of(item(P1, 2), item(P2, 2))),
+                new StockEngine.OrderLines("o2", List.of(item(P1, 1)))), 0L);
+        assertArrayEquals(new long[]{1, 1}, res.get(0));
+        assertArrayEquals(new long[]{0}, res.get(1));
+
+        assertEquals(1L, engine.release("o1", P2, null, 2));
+        assertEquals(2L, engine.release("o1", P2, null, 2));
+    }
+}
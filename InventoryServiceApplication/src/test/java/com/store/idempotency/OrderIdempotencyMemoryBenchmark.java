@@ -0,0 +1,122 @@
+package com.store.idempotency;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * So sánh bộ nhớ Redis của idempotency theo order (1 hash idem:order:{orderId}, 1 TTL) với layout cũ
+ * (1 string key + TTL cho mỗi dòng: order:seen:*, proj:product:reserved:*, proj:product:released:*).
+ * Cần Redis thật và xoá sạch DB được chọn, nên chỉ chạy khi được yêu cầu:
+ * mvn test -Dtest=OrderIdempotencyMemoryBenchmark -Dbench.redis=localhost:6379 [-Dbench.redis.db=15]
+ * [-Dbench.orders=100000] [-Dbench.lines=3]
+ */
+@EnabledIfSystemProperty(named = "bench.redis", matches = ".+")
+class OrderIdempotencyMemoryBenchmark {
+
+    private static final long TTL_SECONDS = 604800;
+    private static final int PIPELINE = 1000;
+    // cứ 5 dòng có 1 dòng được trả hàng (release-stock / huỷ order)
+    private static final int RELEASE_EVERY = 5;
+
+    private final int orders = Integer.getInteger("bench.orders", 100_000);
+    private final int lines = Integer.getInteger("bench.lines", 3);
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redis;
+    private OrderIdempotencyStore store;
+
+    @BeforeEach
+    void setUp() {
+        String[] hostPort = System.getProperty("bench.redis").split(":");
+        RedisStandaloneConfiguration cfg = new RedisStandaloneConfiguration(hostPort[0],
+                hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 6379);
+        cfg.setDatabase(Integer.getInteger("bench.redis.db", 15));
+        factory = new LettuceConnectionFactory(cfg);
+        factory.afterPropertiesSet();
+        redis = new StringRedisTemplate(factory);
+        store = new OrderIdempotencyStore();
+        ReflectionTestUtils.setField(store, "ttlSeconds", TTL_SECONDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        flush();
+        factory.destroy();
+    }
+
+    private void flush() {
+        redis.execute((RedisCallback<Object>) c -> {
+            c.serverCommands().flushDb();
+            return null;
+        });
+    }
+
+    private long usedMemory() {
+        Properties info = redis.execute((RedisCallback<Properties>) c -> c.serverCommands().info("memory"));
+        return Long.parseLong(info.getProperty("used_memory"));
+    }
+
+    private interface Writer {
+        void write(StringRedisConnection sc, String orderId, String productId, String size, boolean released);
+    }
+
+    private long measure(Writer writer) {
+        flush();
+        long before = usedMemory();
+        for (int from = 0; from < orders; from += PIPELINE) {
+            int start = from;
+            redis.executePipelined((RedisCallback<Object>) conn -> {
+                StringRedisConnection sc = (StringRedisConnection) conn;
+                for (int o = start; o < Math.min(start + PIPELINE, orders); o++) {
+                    String orderId = "00000000-0000-7000-8000-" + String.format("%012d", o);
+                    for (int l = 0; l < lines; l++) {
+                        String productId = "product-" + ((o * 31 + l) % 5000);
+                        writer.write(sc, orderId, productId, "M", (o * lines + l) % RELEASE_EVERY == 0);
+                    }
+                }
+                return null;
+            });
+        }
+        return usedMemory() - before;
+    }
+
+    @Test
+    void perOrderHashUsesLessMemoryThanKeyPerLine() {
+        long legacy = measure((sc, orderId, productId, size, released) -> {
+            sc.setEx("order:seen:" + orderId + "#" + productId, TTL_SECONDS, "2");
+            sc.setEx("proj:product:reserved:" + orderId + "#" + productId + "#" + size, TTL_SECONDS, "1");
+            if (released) {
+                sc.setEx("proj:product:released:" + orderId + "#" + productId + "#" + size, TTL_SECONDS, "1");
+            }
+        });
+
+        long compact = measure((sc, orderId, productId, size, released) -> {
+            String key = store.key(orderId);
+            sc.hSet(key, store.reserveField(productId, size), "2");
+            sc.hSet(key, "prod:res:" + productId + "#" + size, "1");
+            if (released) {
+                sc.hSet(key, store.releaseField(productId, size), "2");
+                sc.hSet(key, "prod:rel:" + productId + "#" + size, "1");
+            }
+            sc.expire(key, TTL_SECONDS);
+        });
+
+        System.out.printf("[BENCH] %d orders x %d lines: key-per-line=%,d bytes (%.1f/order), " +
+                        "hash-per-order=%,d bytes (%.1f/order), ratio=%.2f%n",
+                orders, lines, legacy, (double) legacy / orders, compact, (double) compact / orders,
+                (double) compact / legacy);
+        assertTrue(compact < legacy, "hash theo order phải tốn ít bộ nhớ hơn key theo dòng");
+    }
+}
@@ -0,0 +1,160 @@
+package com.store.client;
+
+import com.store.dto.ProductDTO;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Đọc product cho đặt hàng. Giá và tồn theo size luôn đọc trực tiếp từ product-service (size giảm theo
+ * stock-reserved/release-stock mà không phát event product-*), cả giỏ hàng trong 1 lần POST /api/products/batch;
+ * batch lỗi (product-service bản cũ chưa có endpoint, timeout...) thì GET từng product song song
+ * trên pool riêng thay vì tuần tự. Mỗi lần đọc được làm mới ProductSnapshotCache; product-service không
+ * trả lời được thì dùng bản chụp cho các id có sẵn.
+ */
+@Component
+public class ProductClient {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductClient.class);
+    private static final String BASE_URL = "http://product-service/api/products";
+
+    private final RestTemplate restTemplate;
+    private final ProductSnapshotCache cache;
+    private final ExecutorService pool;
+
+    public ProductClient(RestTemplate restTemplate,
+                         ProductSnapshotCache cache,
+                         @Value("${order.product-lookup.parallelism:8}") int parallelism) {
+        this.restTemplate = restTemplate;
+        this.cache = cache;
+        this.pool = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("product-lookup-"));
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdown();
+    }
+
+    public ProductDTO getProduct(String productId) {
+        return restTemplate.getForObject(BASE_URL + "/" + productId, ProductDTO.class);
+    }
+
+    /** productId -> product; id không tồn tại thì không có trong map. */
+    public Map<String, ProductDTO> getProducts(Collection<String> productIds) {
+        List<String> ids = productIds.stream().distinct().toList();
+        Map<String, ProductDTO> out;
+        try {
+            out = fetch(ids);
+        } catch (RuntimeException e) {
+            // product-service lỗi: chỉ phục vụ từ bản chụp khi có đủ cả giỏ hàng, thiếu thì để caller retry
+            Map<String, ProductDTO> snapshot = cache.getAll(ids);
+            if (snapshot.size() < ids.size()) throw e;
+            log.warn("Product lookup failed ({} ids), serving from snapshot: {}", ids.size(), e.getMessage());
+            return snapshot;
+        }
+        out.values().forEach(cache::put);
+        return out;
+    }
+
+    private Map<String, ProductDTO> fetch(List<String> ids) {
+        Map<String, ProductDTO> out = new HashMap<>();
+        if (ids.isEmpty()) return out;
+
+        try {
+            ProductDTO[] found = restTemplate.postForObject(BASE_URL + "/batch", ids, ProductDTO[].class);
+            if (found != null) {
+                for (ProductDTO p : found) {
+                    if (p != null && p.getProductId() != null) out.put(p.getProductId(), p);
+                }
+            }
+            return out;
+        } catch (RestClientException e) {
+            log.warn("Batch product lookup failed ({} ids), falling back to parallel GET: {}", ids.size(), e.getMessage());
+        }
+
+        List<CompletableFuture<ProductDTO>> futures = ids.stream()
+                .map(id -> CompletableFuture.supplyAsync(() -> getOrNull(id), pool))
+                .toList();
+        for (int i = 0; i < ids.size(); i++) {
+            ProductDTO p = futures.get(i).join();
+            if (p != null) out.put(ids.get(i), p);
+        }
+        return out;
+    }
+
+    private ProductDTO getOrNull(String productId) {
+        try {
+            return getProduct(productId);
+        } catch (HttpClientErrorException.NotFound e) {
+            return null;
+        }
+    }
+
+    /**
+     * Size còn đủ hàng không. sizes của ProductDTO là Object: danh sách phần tử {size, quantity}
+     * (Map khi đọc từ JSON) hoặc chuỗi dạng "S:3,M:5".
+     */
+    public static boolean hasEnough(ProductDTO p, String size, int need) {
+        Object sizesObj = p.getSizes();
+        if (sizesObj instanceof Collection<?> sizes) {
+            for (Object obj : sizes) {
+                if (obj == null) continue;
+                Object sName, sQty;
+                if (obj instanceof Map<?, ?> m) {
+                    sName = m.get("size");
+                    sQty = m.get("quantity");
+                } else {
+                    try {
+                        var c = obj.getClass();
+                        sName = c.getMethod("getSize").invoke(obj);
+                        sQty = c.getMethod("getQuantity").invoke(obj);
+                    } catch (Exception ignore) {
+                        continue; // bỏ qua phần tử không khớp
+                    }
+                }
+                if (sName != null && String.valueOf(sName).equalsIgnoreCase(size)) {
+                    try {
+                        return Integer.parseInt(String.valueOf(sQty)) >= need;
+                    } catch (NumberFormatException ignore) {
+                        return false;
+                    }
+                }
+            }
+            return false;
+        }
+
+        if (sizesObj instanceof String s) {
+            for (String raw : s.split("[,;|]")) {
+                String t = raw.trim();
+                if (t.isEmpty()) continue;
+
+                String name = t;
+                int qty = 0;
+                int idx = t.indexOf(':');
+                if (idx >= 0) {
+                    name = t.substring(0, idx).trim();
+                    try {
+                        qty = Math.max(0, Integer.parseInt(t.substring(idx + 1).trim()));
+                    } catch (NumberFormatException ignore) {
+                        qty = 0;
+                    }
+                }
+                if (name.equalsIgnoreCase(size)) {
+                    return qty >= need;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,139 @@
+package com.store.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.store.dto.ProductDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Bản chụp product (giá + tồn theo size) giữ trong process, dựng từ product-created/updated/deleted-topic
+ * và làm mới bằng mỗi lần ProductClient đọc trực tiếp. Chỉ dùng khi product-service không trả lời được:
+ * tồn theo size ở đây có thể cũ (product-service trừ size mà không phát event), giữ hàng thật vẫn do
+ * inventory-service quyết định. Khi khởi động nạp 1 lần từ GET /api/products (chỉ putIfAbsent).
+ * Giới hạn max-entries theo LRU. Consumer group cố định theo instance-id để restart không để lại group mồ côi.
+ * Metric: order.product_cache.staleness.seconds (từ lần cuối nhận event/bootstrap), .size, .hits, .misses.
+ */
+@Component
+public class ProductSnapshotCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSnapshotCache.class);
+    private static final String DELETED_TOPIC = "product-deleted-topic";
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper om = new ObjectMapper();
+    private final Map<String, ProductDTO> products;
+    private final Counter hits;
+    private final Counter misses;
+    private volatile long lastUpdateMs = 0L;
+
+    @Value("${order.product-cache.enabled:true}")
+    private boolean enabled;
+
+    public ProductSnapshotCache(RestTemplate restTemplate,
+                                MeterRegistry registry,
+                                @Value("${order.product-cache.max-entries:50000}") int maxEntries) {
+        this.restTemplate = restTemplate;
+        this.products = Collections.synchronizedMap(new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ProductDTO> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        registry.gauge("order.product_cache.staleness.seconds", this,
+                c -> c.lastUpdateMs == 0 ? Double.NaN : (System.currentTimeMillis() - c.lastUpdateMs) / 1000.0);
+        registry.gaugeMapSize("order.product_cache.size", List.of(), products);
+        this.hits = registry.counter("order.product_cache.hits");
+        this.misses = registry.counter("order.product_cache.misses");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        if (!enabled) return;
+        try {
+            ProductDTO[] all = restTemplate.getForObject("http://product-service/api/products", ProductDTO[].class);
+            int n = 0;
+            if (all != null) {
+                for (ProductDTO p : all) {
+                    if (p != null && p.getProductId() != null && products.putIfAbsent(p.getProductId(), p) == null) n++;
+                }
+            }
+            lastUpdateMs = System.currentTimeMillis();
+            log.info("[PRODUCT-CACHE] Bootstrapped {} products", n);
+        } catch (Exception e) {
+            // product-service chưa sẵn sàng: cache tự đầy dần qua event và các lần miss
+            log.warn("[PRODUCT-CACHE] Bootstrap failed: {}", e.getMessage());
+        }
+    }
+
+    /** productId -> product cho các id đang có trong cache. */
+    public Map<String, ProductDTO> getAll(Collection<String> productIds) {
+        Map<String, ProductDTO> out = new HashMap<>();
+        if (!enabled) return out;
+        for (String id : productIds) {
+            ProductDTO p = products.get(id);
+            if (p != null) out.put(id, p);
+        }
+        hits.increment(out.size());
+        misses.increment(productIds.size() - out.size());
+        return out;
+    }
+
+    /** Kết quả đọc trực tiếp từ product-service: mới hơn mọi bản đang giữ. */
+    public void put(ProductDTO p) {
+        if (enabled && p != null && p.getProductId() != null) {
+            products.put(p.getProductId(), p);
+            lastUpdateMs = System.currentTimeMillis();
+        }
+    }
+
+    @KafkaListener(
+            topics = {"product-created-topic", "product-updated-topic", DELETED_TOPIC},
+            groupId = "order-product-cache-${order.product-cache.instance-id:${HOSTNAME:local}}",
+            containerFactory = "productEventStringFactory",
+            autoStartup = "${order.product-cache.enabled:true}"
+    )
+    public void onProductEvent(String message, @Header(KafkaHeaders.RECEIVED_TOPIC) String topic) {
+        try {
+            // Nếu payload bị bọc thêm lớp quote (\"...\"), bỏ bọc trước khi parse
+            String json = (message != null && !message.isEmpty() && message.charAt(0) == '"')
+                    ? om.readValue(message, String.class)
+                    : message;
+            JsonNode node = om.readTree(json);
+            String id = node.path("id").asText(null);
+            if (id == null || id.isBlank()) return;
+
+            if (DELETED_TOPIC.equals(topic)) {
+                products.remove(id);
+            } else {
+                ProductDTO prev = products.get(id);
+                Object sizes = node.hasNonNull("sizesWithQty")
+                        ? om.convertValue(node.get("sizesWithQty"), List.class)
+                        : (prev == null ? null : prev.getSizes());
+                products.put(id, ProductDTO.builder()
+                        .productId(id)
+                        .name(node.path("name").asText(null))
+                        .price(node.hasNonNull("price") ? new BigDecimal(node.get("price").asText()) : null)
+                        .quantity(node.hasNonNull("quantity") ? node.get("quantity").asInt() : null)
+                        .sizes(sizes)
+                        .build());
+            }
+            lastUpdateMs = System.currentTimeMillis();
+        } catch (Exception e) {
+            log.warn("[PRODUCT-CACHE] Skip invalid event on {}: {}", topic, e.getMessage());
+        }
+    }
+}
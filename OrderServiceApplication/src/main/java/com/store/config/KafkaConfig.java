@@ -1,5 +1,6 @@
 package com.store.config;
 
+import com.store.event.StockHoldExpired;
 import com.store.event.StockRejected;
 import com.store.event.StockReserved;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
@@ -27,6 +28,10 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.group-id:order-group-v1}")
     private String groupId;
 
+    // Topic saga có nhiều partition, key theo orderId: mỗi consumer thread giữ 1 phần order, thứ tự trong 1 order vẫn giữ
+    @Value("${order.kafka.concurrency:3}")
+    private int concurrency;
+
     /* ------------ Producer JSON (gửi Object) ------------ */
     @Bean
     public ProducerFactory<String, Object> orderProducerFactory() {
@@ -75,6 +80,9 @@ public class KafkaConfig {
     stockReservedKafkaListenerFactory() {
         ConcurrentKafkaListenerContainerFactory<String, StockReserved> f = new ConcurrentKafkaListenerContainerFactory<>();
         f.setConsumerFactory(stockReservedCF());
+        f.setConcurrency(concurrency);
+        // OrderListener.onStockReserved nhận cả lô, 1 transaction cho lô
+        f.setBatchListener(true);
         return f;
     }
 
@@ -89,6 +97,37 @@ public class KafkaConfig {
     stockRejectedKafkaListenerFactory() {
         ConcurrentKafkaListenerContainerFactory<String, StockRejected> f = new ConcurrentKafkaListenerContainerFactory<>();
         f.setConsumerFactory(stockRejectedCF());
+        f.setConcurrency(concurrency);
+        return f;
+    }
+
+    /* ------------ StockHoldExpired listener factory ------------ */
+    @Bean
+    public ConsumerFactory<String, StockHoldExpired> stockHoldExpiredCF() {
+        return new DefaultKafkaConsumerFactory<>(baseConsumerProps(StockHoldExpired.class));
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, StockHoldExpired>
+    stockHoldExpiredKafkaListenerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, StockHoldExpired> f = new ConcurrentKafkaListenerContainerFactory<>();
+        f.setConsumerFactory(stockHoldExpiredCF());
+        f.setConcurrency(concurrency);
+        return f;
+    }
+
+    /* ------------ product-* topics (String, ProductSnapshotCache) ------------ */
+    // Mỗi instance cần đủ mọi event product nên dùng group riêng theo instance, đọc từ mới nhất
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> productEventStringFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrap);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+
+        ConcurrentKafkaListenerContainerFactory<String, String> f = new ConcurrentKafkaListenerContainerFactory<>();
+        f.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
         return f;
     }
 }
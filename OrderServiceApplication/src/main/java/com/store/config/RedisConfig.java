@@ -0,0 +1,31 @@
+package com.store.config;
+
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class RedisConfig {
+
+    // Pub/sub giữa các instance (OrderStatusStream): SSE nằm ở instance nào cũng nhận được trạng thái order
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer c = new RedisMessageListenerContainer();
+        c.setConnectionFactory(connectionFactory);
+        return c;
+    }
+
+    // Lock phân tán cho Idempotency-Key (IdempotencyKeyStore), dùng chung Redis với Spring Data
+    @Bean(destroyMethod = "shutdown")
+    public RedissonClient redissonClient(@Value("${spring.data.redis.host:localhost}") String host,
+                                         @Value("${spring.data.redis.port:6379}") int port) {
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://" + host + ":" + port);
+        return Redisson.create(config);
+    }
+}
@@ -1,40 +1,62 @@
 package com.store.controller;
 
+import com.store.dto.CursorPage;
 import com.store.dto.OrderDTO;
 import com.store.dto.request.OrderCreateRequest;
 import com.store.dto.request.OrderItemRequest;
+import com.store.idempotency.IdempotencyKeyStore;
 import com.store.model.Order;
+import com.store.model.OrderStatus;
 import com.store.dto.request.OrderRequest;
 import com.store.security.JwtUtil;
+import com.store.service.AsyncOrderProcessor;
+import com.store.service.OrderExportService;
 import com.store.service.OrderService;
+import com.store.service.OrderStatusStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
 import java.text.Normalizer;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/orders")
 @RequiredArgsConstructor
 public class OrderController {
 
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final JwtUtil jwtUtil;
     private final RedisTemplate<String, String> redisTemplate;
     private final OrderService orderService;
+    private final AsyncOrderProcessor asyncOrderProcessor;
+    private final OrderStatusStream statusStream;
+    private final OrderExportService orderExportService;
+    private final IdempotencyKeyStore idempotency;
 
     @PostMapping("/create")
-    public ResponseEntity<OrderDTO> createOrder(@RequestBody List<OrderItemRequest> items,
-                                                HttpServletRequest request) {
+    public ResponseEntity<?> createOrder(@RequestBody List<OrderItemRequest> items,
+                                         @RequestParam(name = "async", defaultValue = "false") boolean async,
+                                         HttpServletRequest request) {
         String header = request.getHeader("Authorization");
         if (header == null || !header.startsWith("Bearer ")) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
@@ -46,6 +68,29 @@ public class OrderController {
         // Truyền token (String) vào JwtUtil
         String userId = jwtUtil.extractUserId(token);
 
+        // Client retry sau timeout gửi lại cùng Idempotency-Key: trả lại response lần đầu, không tạo order mới
+        String idemKey = request.getHeader(IdempotencyKeyStore.HEADER);
+        if (idemKey != null) {
+            Map<String, Object> fingerprint = new java.util.LinkedHashMap<>(); // thứ tự cố định giữa các instance
+            fingerprint.put("async", async);
+            fingerprint.put("items", items);
+            return idempotency.execute(userId, idemKey, fingerprint, () -> create(userId, items, async));
+        }
+        return create(userId, items, async);
+    }
+
+    private ResponseEntity<?> create(String userId, List<OrderItemRequest> items, boolean async) {
+        if (async) {
+            // Nhận order ngay (PENDING), định giá + kiểm tra tồn chạy nền; client theo dõi qua statusUrl (SSE)
+            Order order = orderService.acceptOrder(userId, items);
+            asyncOrderProcessor.submitAfterCommit(order.getId());
+            Map<String, Object> body = new java.util.LinkedHashMap<>();
+            body.put("orderId", order.getId());
+            body.put("status", order.getStatus().name());
+            body.put("statusUrl", "/api/orders/mine/" + order.getId() + "/events");
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(body);
+        }
+
         // Tạo order
         Order order = orderService.createOrder(userId, items);
         return ResponseEntity.ok(orderService.toDto(order));
@@ -57,9 +102,48 @@ public class OrderController {
         return ResponseEntity.badRequest().body(body);
     }
 
+    // Body vẫn là mảng order như trước; trang tiếp theo: gửi lại giá trị header X-Next-Cursor qua ?cursor=
+    private static <T> ResponseEntity<List<T>> page(CursorPage<T> page) {
+        var res = ResponseEntity.ok();
+        if (page.getNextCursor() != null) res.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        return res.body(page.getItems());
+    }
+
     @GetMapping
-    public ResponseEntity<List<OrderDTO>> getAllOrders() {
-        return ResponseEntity.ok(orderService.getAllOrderDtos());
+    public ResponseEntity<List<OrderDTO>> getAllOrders(@RequestParam(name = "cursor", required = false) String cursor,
+                                                       @RequestParam(name = "limit", required = false) Integer limit) {
+        return page(orderService.getOrderDtoPage(cursor, limit));
+    }
+
+    /**
+     * Xuất order dạng NDJSON cho job back-office, stream thẳng từ cursor DB (không gom list trên heap).
+     * from/to là ISO-8601 (created_at trong [from, to)), gzip=true thì trả file .ndjson.gz.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(name = "status", required = false) OrderStatus status,
+            @RequestParam(name = "gzip", defaultValue = "false") boolean gzip) {
+        if (from != null && to != null && !from.isBefore(to)) {
+            throw new IllegalArgumentException("from phải trước to");
+        }
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                try (GZIPOutputStream gz = new GZIPOutputStream(out, 64 * 1024)) {
+                    orderExportService.export(from, to, status, gz);
+                }
+            } else {
+                OutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+                orderExportService.export(from, to, status, buffered);
+                buffered.flush();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"orders.ndjson" + (gzip ? ".gz" : "") + "\"")
+                .body(body);
     }
 
     @GetMapping("/{id}")
@@ -67,7 +151,9 @@ public class OrderController {
         return ResponseEntity.ok(orderService.getOrderById(id));
     }
     @GetMapping("/mine")
-    public ResponseEntity<?> myOrders(HttpServletRequest httpReq) {
+    public ResponseEntity<?> myOrders(@RequestParam(name = "cursor", required = false) String cursor,
+                                      @RequestParam(name = "limit", required = false) Integer limit,
+                                      HttpServletRequest httpReq) {
         String auth = httpReq.getHeader("Authorization");
         if (auth == null || !auth.startsWith("Bearer ")) {
             return bad("Missing Authorization header (Bearer)");
@@ -82,8 +168,7 @@ public class OrderController {
             return bad("Invalid token or userId: " + e.getClass().getSimpleName());
         }
 
-        var orders = orderService.getAllByUser(userId);
-        return ResponseEntity.ok(orders);
+        return page(orderService.getPageByUser(userId, cursor, limit));
     }
 
     @GetMapping("/mine/{id}")
@@ -107,4 +192,35 @@ public class OrderController {
         return ResponseEntity.ok(order);
     }
 
+    /**
+     * Server-sent events trạng thái order (event "status"), đóng khi order CONFIRMED/CANCELLED/PAID.
+     * EventSource của trình duyệt không gửi được header nên chấp nhận thêm ?token=.
+     */
+    @GetMapping(value = "/mine/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> myOrderEvents(@PathVariable("id") String id,
+                                           @RequestParam(name = "token", required = false) String tokenParam,
+                                           HttpServletRequest httpReq) {
+        String auth = httpReq.getHeader("Authorization");
+        String token = auth != null && auth.startsWith("Bearer ") ? auth.substring(7) : tokenParam;
+        if (token == null || token.isBlank()) {
+            return bad("Missing Authorization header (Bearer)");
+        }
+
+        final String uid;
+        try {
+            uid = jwtUtil.extractUserId(token);
+        } catch (Exception e) {
+            return bad("Invalid token: " + e.getClass().getSimpleName());
+        }
+
+        if (orderService.getByIdForUser(id, uid) == null) {
+            return ResponseEntity.status(404).contentType(MediaType.APPLICATION_JSON)
+                    .body(Map.of("message", "Order not found"));
+        }
+        SseEmitter emitter = statusStream.subscribe(id, () -> {
+            var o = orderService.getByIdForUser(id, uid);
+            return o == null ? OrderStatus.CANCELLED : o.getStatus();
+        });
+        return ResponseEntity.ok(emitter);
+    }
 }
@@ -0,0 +1,14 @@
+package com.store.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/** 1 trang kết quả theo keyset; nextCursor = null khi đã hết. */
+@Data
+@AllArgsConstructor
+public class CursorPage<T> {
+    private List<T> items;
+    private String nextCursor;
+}
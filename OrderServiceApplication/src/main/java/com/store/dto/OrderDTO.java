@@ -7,6 +7,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.List;
 
 @Data
@@ -19,5 +20,6 @@ public class OrderDTO {
     private String userId;
     private String status;
     private BigDecimal totalAmount;
+    private Instant createdAt;
     private List<OrderItemDTO> items;
 }
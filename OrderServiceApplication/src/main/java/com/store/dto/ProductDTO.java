@@ -1,5 +1,6 @@
 package com.store.dto;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -12,6 +13,7 @@ import java.math.BigDecimal;
 @AllArgsConstructor
 @NoArgsConstructor
 public class ProductDTO {
+    @JsonAlias("id") // product-service trả về "id"
     private String productId;
     private Object sizes;
     private String name;
@@ -0,0 +1,11 @@
+package com.store.event;
+
+import lombok.*;
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StockHoldExpired {
+    private String orderId;
+    private String reason;
+}
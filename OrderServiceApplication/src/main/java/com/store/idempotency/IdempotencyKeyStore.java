@@ -0,0 +1,123 @@
+package com.store.idempotency;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Header Idempotency-Key cho POST /api/orders/create: client retry sau timeout nhận lại đúng response
+ * của lần đầu thay vì tạo order mới (kéo theo giữ hàng/hoàn hàng lặp).
+ * Mỗi (userId, key) có 1 lock Redisson: request trùng đến đồng thời chờ request đầu xong rồi đọc response đã lưu
+ * ở idem:create:{userId}:{key}. Chỉ response 2xx được lưu, lỗi thì lần gửi lại chạy lại như mới.
+ * Cùng key nhưng khác body (fingerprint MD5 của request) thì trả 422.
+ */
+@Slf4j
+@Component
+public class IdempotencyKeyStore {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final RedissonClient redisson;
+    private final ObjectMapper om;
+
+    @Value("${order.idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${order.idempotency.wait-ms:15000}")
+    private long waitMs;
+
+    public IdempotencyKeyStore(RedissonClient redisson, ObjectMapper om) {
+        this.redisson = redisson;
+        this.om = om;
+    }
+
+    /**
+     * Chạy action 1 lần cho (userId, key); lần sau trả lại response đã lưu kèm header Idempotent-Replayed.
+     * @param request body của request, dùng để phát hiện key bị dùng lại cho request khác
+     */
+    public ResponseEntity<?> execute(String userId, String key, Object request, Supplier<ResponseEntity<?>> action) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException(HEADER + " phải có 1-" + MAX_KEY_LENGTH + " ký tự");
+        }
+        String id = userId + ":" + key;
+        String fingerprint = fingerprint(request);
+        RBucket<String> stored = redisson.getBucket("idem:create:" + id, StringCodec.INSTANCE);
+
+        String hit = stored.get();
+        if (hit != null) return replay(hit, fingerprint);
+
+        RLock lock = redisson.getLock("idem:create:lock:" + id);
+        boolean locked;
+        try {
+            locked = lock.tryLock(waitMs, TimeUnit.MILLISECONDS); // lease do watchdog gia hạn
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for " + HEADER, e);
+        }
+        if (!locked) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("message", "Request với " + HEADER + " này vẫn đang được xử lý"));
+        }
+        try {
+            hit = stored.get();
+            if (hit != null) return replay(hit, fingerprint);
+
+            ResponseEntity<?> res = action.get();
+            if (res.getStatusCode().is2xxSuccessful()) {
+                ObjectNode entry = om.createObjectNode();
+                entry.put("status", res.getStatusCode().value());
+                entry.put("fingerprint", fingerprint);
+                entry.set("body", om.valueToTree(res.getBody()));
+                try {
+                    stored.set(om.writeValueAsString(entry), ttlHours, TimeUnit.HOURS);
+                } catch (Exception e) {
+                    // order đã tạo: không làm hỏng response, chỉ mất khả năng replay cho key này
+                    log.warn("[IDEM] Store response for key {} failed: {}", id, e.getMessage());
+                }
+            }
+            return res;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ResponseEntity<?> replay(String json, String fingerprint) {
+        try {
+            JsonNode entry = om.readTree(json);
+            if (!fingerprint.equals(entry.path("fingerprint").asText())) {
+                return ResponseEntity.unprocessableEntity()
+                        .body(Map.of("message", HEADER + " đã được dùng cho request khác"));
+            }
+            return ResponseEntity.status(entry.path("status").asInt(200))
+                    .header(REPLAYED_HEADER, "true")
+                    .body(entry.get("body"));
+        } catch (Exception e) {
+            throw new IllegalStateException("Stored idempotent response is unreadable", e);
+        }
+    }
+
+    private String fingerprint(Object request) {
+        try {
+            return DigestUtils.md5DigestAsHex(om.writeValueAsString(request).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Request không hợp lệ", e);
+        }
+    }
+}
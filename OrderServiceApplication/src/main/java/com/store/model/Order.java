@@ -7,6 +7,8 @@ import jakarta.validation.constraints.NotNull;
 import lombok.*;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,20 +17,33 @@ import java.util.List;
 @AllArgsConstructor
 @Entity
 @Builder
-@Table(name = "orders")
+@Table(name = "orders", indexes = {
+        @Index(name = "idx_orders_user_created", columnList = "user_id, created_at"),
+        @Index(name = "idx_orders_created", columnList = "created_at")
+})
 public class Order {
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedUuid
     private String id;
     private String userId;
     @Column(precision = 38, scale = 10)
     private BigDecimal totalAmount;
     @Enumerated(EnumType.STRING)
     private OrderStatus status;
+    // Số dòng chưa được inventory giữ hàng; về 0 thì order CONFIRMED (OrderListener)
+    private Integer pendingLines;
+    // Cột phân trang (keyset created_at, id); order cũ nhận thời điểm thêm cột
+    @Column(name = "created_at", nullable = false, columnDefinition = "DATETIME(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6)")
+    private Instant createdAt;
     @OneToMany(mappedBy = "order", cascade = CascadeType.ALL, orphanRemoval = true)
     @Builder.Default
     @ToString.Exclude
     private List<OrderItem> items = new ArrayList<>();
+    @PrePersist
+    void prePersist() {
+        if (createdAt == null) createdAt = Instant.now().truncatedTo(ChronoUnit.MICROS); // = DATETIME(6)
+    }
+
     public void addItem(OrderItem item) {
         item.setOrder(this);
         items.add(item);
@@ -0,0 +1,19 @@
+package com.store.model;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Id dạng UUIDv7 (TimeOrderedUuidGenerator) thay cho @GeneratedValue(strategy = GenerationType.UUID):
+ * vẫn là chuỗi UUID 36 ký tự nên API không đổi, nhưng tăng dần theo thời gian
+ * nên insert luôn nối vào cuối index khoá chính của InnoDB thay vì chèn ngẫu nhiên.
+ */
+@IdGeneratorType(TimeOrderedUuidGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface TimeOrderedUuid {
+}
@@ -0,0 +1,47 @@
+package com.store.model;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.generator.EventTypeSets;
+
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.UUID;
+
+/**
+ * UUIDv7 (RFC 9562): 48 bit epoch millis | version 7 | 12 bit bộ đếm | variant | 62 bit ngẫu nhiên.
+ * Trong cùng 1 ms bộ đếm tăng dần (bắt đầu từ giá trị ngẫu nhiên), tràn thì mượn ms kế tiếp,
+ * nên id sinh ra trong 1 JVM luôn tăng, cả khi so sánh chuỗi.
+ */
+public class TimeOrderedUuidGenerator implements BeforeExecutionGenerator {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static long lastMillis;
+    private static int counter;
+
+    public static synchronized UUID next() {
+        long now = System.currentTimeMillis();
+        if (now > lastMillis) {
+            lastMillis = now;
+            counter = RANDOM.nextInt(1 << 11); // nửa dưới để còn chỗ tăng trong cùng ms
+        } else if (++counter > 0xFFF) {
+            lastMillis++;
+            counter = 0;
+        }
+        long msb = (lastMillis << 16) | 0x7000L | counter;
+        long lsb = (RANDOM.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object owner, Object currentValue, EventType eventType) {
+        return next().toString();
+    }
+
+    @Override
+    public EnumSet<EventType> getEventTypes() {
+        return EventTypeSets.INSERT_ONLY;
+    }
+}
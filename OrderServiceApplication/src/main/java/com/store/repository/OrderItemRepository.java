@@ -1,16 +1,29 @@
 package com.store.repository;
 
 import com.store.model.OrderItem;
+import com.store.model.OrderItemStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.util.Optional;
 
 public interface OrderItemRepository extends JpaRepository<OrderItem, String> {
-    @Query("select i from OrderItem i where i.order.id = :orderId and i.productId = :productId and i.size = :size")
+    @Query("select i from OrderItem i where i.order.id = :orderId and i.productId = :productId " +
+            "and (i.size = :size or (i.size is null and :size is null))")
     Optional<OrderItem> findByOrderIdAndProductIdAndSize(@Param("orderId") String orderId,
                                                          @Param("productId") String productId,
                                                          @Param("size") String size);
-}
 
+    // Chuyển trạng thái 1 dòng nếu đang ở trạng thái from; trả về 0 nếu không có dòng hoặc event lặp.
+    // So sánh size null-safe: dòng không có size (event mang size null) vẫn phải khớp
+    @Modifying
+    @Query("update OrderItem i set i.itemStatus = :to where i.order.id = :orderId and i.productId = :productId " +
+            "and (i.size = :size or (i.size is null and :size is null)) and i.itemStatus = :from")
+    int transition(@Param("orderId") String orderId,
+                   @Param("productId") String productId,
+                   @Param("size") String size,
+                   @Param("from") OrderItemStatus from,
+                   @Param("to") OrderItemStatus to);
+}
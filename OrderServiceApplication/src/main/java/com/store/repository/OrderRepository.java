@@ -1,13 +1,67 @@
 package com.store.repository;
 
 import com.store.model.Order;
+import com.store.model.OrderItemStatus;
+import com.store.model.OrderStatus;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface OrderRepository extends JpaRepository<Order, String> {
-    List<Order> findByUserIdOrderByIdDesc(String userId);
-    @Query("select distinct o from Order o left join fetch o.items")
-    List<Order> findAllWithItems();
+    // Keyset theo (created_at, id) giảm dần: chỉ lấy id của 1 trang, items nạp sau bằng findAllWithItemsByIdIn
+    @Query("select o.id from Order o order by o.createdAt desc, o.id desc")
+    List<String> findPageIds(Pageable page);
+
+    @Query("select o.id from Order o where o.createdAt < :createdAt or (o.createdAt = :createdAt and o.id < :id) " +
+            "order by o.createdAt desc, o.id desc")
+    List<String> findPageIdsBefore(@Param("createdAt") Instant createdAt, @Param("id") String id, Pageable page);
+
+    @Query("select o.id from Order o where o.userId = :userId order by o.createdAt desc, o.id desc")
+    List<String> findPageIdsByUser(@Param("userId") String userId, Pageable page);
+
+    @Query("select o.id from Order o where o.userId = :userId " +
+            "and (o.createdAt < :createdAt or (o.createdAt = :createdAt and o.id < :id)) " +
+            "order by o.createdAt desc, o.id desc")
+    List<String> findPageIdsByUserBefore(@Param("userId") String userId, @Param("createdAt") Instant createdAt,
+                                         @Param("id") String id, Pageable page);
+
+    @Query("select distinct o from Order o left join fetch o.items where o.id in :ids")
+    List<Order> findAllWithItemsByIdIn(@Param("ids") Collection<String> ids);
+    // Order nhận theo chế độ async mà chưa định giá xong
+    // chỉ order tạo trước createdBefore: order mới hơn có thể đang được instance khác xử lý
+    @Query("select distinct o.id from Order o join o.items i " +
+            "where o.status = :status and i.unitPrice is null and o.createdAt < :createdBefore")
+    List<String> findUnpricedIdsByStatus(@Param("status") OrderStatus status,
+                                         @Param("createdBefore") Instant createdBefore);
+
+    // Khoá dòng order: 2 worker (cùng hoặc khác instance) không định giá/phát order-created cùng 1 order
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select o from Order o where o.id = :id")
+    Optional<Order> findByIdForUpdate(@Param("id") String id);
+
+    @Query("select o.userId from Order o where o.id = :id")
+    Optional<String> findUserIdById(@Param("id") String id);
+
+    @Modifying
+    @Query("update Order o set o.pendingLines = o.pendingLines - :n where o.id = :id and o.pendingLines >= :n")
+    int decrementPendingLines(@Param("id") String id, @Param("n") int n);
+
+    // Order tạo trước khi có cột pending_lines: đếm 1 lần từ order_items
+    @Modifying
+    @Query("update Order o set o.pendingLines = (select count(i) from OrderItem i where i.order.id = :id " +
+            "and i.itemStatus <> :reserved) where o.id = :id and o.pendingLines is null")
+    int initPendingLines(@Param("id") String id, @Param("reserved") OrderItemStatus reserved);
+
+    @Modifying
+    @Query("update Order o set o.status = :to where o.id = :id and o.status = :from and o.pendingLines = 0")
+    int confirmIfComplete(@Param("id") String id, @Param("from") OrderStatus from, @Param("to") OrderStatus to);
 }
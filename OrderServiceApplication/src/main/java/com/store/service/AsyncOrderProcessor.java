@@ -0,0 +1,122 @@
+package com.store.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Xử lý nền cho order nhận ở chế độ async (POST /api/orders/create?async=true):
+ * định giá, kiểm tra tồn qua product-service và phát order-created (OrderService.completeAcceptedOrder).
+ * Pool có giới hạn; hàng đợi đầy thì thread của request tự chạy (CallerRunsPolicy) thay vì làm rơi order.
+ * Lỗi gọi product-service được thử lại vài lần rồi huỷ order. Order dở dang (instance dừng giữa chừng)
+ * được quét lại định kỳ từ lúc khởi động, chỉ những order cũ hơn resume-grace-ms để không tranh order
+ * instance khác vừa nhận; completeAcceptedOrder khoá dòng order nên 2 worker không xử lý cùng 1 order.
+ */
+@Slf4j
+@Component
+public class AsyncOrderProcessor {
+
+    private final OrderService orderService;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService retries;
+
+    @Value("${order.async.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${order.async.retry-delay-ms:2000}")
+    private long retryDelayMs;
+
+    @Value("${order.async.resume-grace-ms:300000}")
+    private long resumeGraceMs;
+
+    @Value("${order.async.resume-interval-ms:60000}")
+    private long resumeIntervalMs;
+
+    public AsyncOrderProcessor(OrderService orderService,
+                               @Value("${order.async.workers:8}") int workers,
+                               @Value("${order.async.queue-capacity:1000}") int queueCapacity) {
+        this.orderService = orderService;
+        this.workers = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("order-async-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.retries = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("order-async-retry-"));
+    }
+
+    @PreDestroy
+    public void stop() {
+        retries.shutdownNow();
+        workers.shutdown();
+    }
+
+    /** Nộp order sau khi transaction lưu order commit (worker phải đọc được order). */
+    public void submitAfterCommit(String orderId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(orderId, 1);
+                }
+            });
+        } else {
+            submit(orderId, 1);
+        }
+    }
+
+    private void submit(String orderId, int attempt) {
+        try {
+            workers.execute(() -> process(orderId, attempt));
+        } catch (RejectedExecutionException e) {
+            // đang shutdown: order vẫn PENDING chưa định giá, lần khởi động sau sẽ nộp lại
+            log.warn("[ORDER-ASYNC] Rejected orderId={} (shutting down)", orderId);
+        }
+    }
+
+    private void process(String orderId, int attempt) {
+        try {
+            orderService.completeAcceptedOrder(orderId);
+        } catch (Exception e) {
+            if (attempt < maxAttempts) {
+                log.warn("[ORDER-ASYNC] orderId={} attempt {}/{} failed: {}", orderId, attempt, maxAttempts, e.toString());
+                try {
+                    retries.schedule(() -> submit(orderId, attempt + 1), retryDelayMs * attempt, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ignored) {
+                    // đang shutdown
+                }
+                return;
+            }
+            log.error("[ORDER-ASYNC] orderId={} failed after {} attempts, cancel", orderId, attempt, e);
+            try {
+                orderService.rejectAcceptedOrder(orderId, "Không kiểm tra được sản phẩm, vui lòng thử lại");
+            } catch (Exception ex) {
+                log.error("[ORDER-ASYNC] Cancel orderId={} failed", orderId, ex);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startResume() {
+        retries.scheduleWithFixedDelay(this::resumePending, 0, resumeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void resumePending() {
+        try {
+            List<String> ids = orderService.findUnpricedPendingOrderIds(Instant.now().minusMillis(resumeGraceMs));
+            if (ids.isEmpty()) return;
+            log.info("[ORDER-ASYNC] Resubmitting {} accepted orders", ids.size());
+            ids.forEach(id -> submit(id, 1));
+        } catch (Exception e) {
+            log.error("[ORDER-ASYNC] Resume failed", e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.store.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.store.dto.OrderDTO;
+import com.store.dto.OrderItemDTO;
+import com.store.model.OrderStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Xuất order dạng NDJSON (1 OrderDTO / dòng) cho job back-office.
+ * Đọc orders join order_items bằng cursor chỉ-tiến của MySQL (fetchSize = Integer.MIN_VALUE: driver trả từng dòng
+ * thay vì nạp cả result set), gom các dòng item liên tiếp của cùng order rồi ghi ngay ra output,
+ * nên bộ nhớ chỉ giữ 1 order tại 1 thời điểm dù bảng lớn đến đâu.
+ */
+@Slf4j
+@Service
+public class OrderExportService {
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper om;
+
+    public OrderExportService(DataSource dataSource, ObjectMapper om) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.jdbc.setFetchSize(Integer.MIN_VALUE);
+        this.om = om;
+    }
+
+    /** Ghi order có created_at trong [from, to) và đúng status (null = bỏ qua điều kiện); trả về số order đã ghi. */
+    public long export(Instant from, Instant to, OrderStatus status, OutputStream out) {
+        StringBuilder sql = new StringBuilder("""
+                SELECT o.id, o.user_id, o.status, o.total_amount, o.created_at,
+                       i.product_id, i.size, i.quantity, i.unit_price, i.line_amount
+                FROM orders o LEFT JOIN order_items i ON i.order_id = o.id
+                WHERE 1 = 1""");
+        List<Object> args = new ArrayList<>();
+        if (from != null) {
+            sql.append(" AND o.created_at >= ?");
+            args.add(Timestamp.from(from));
+        }
+        if (to != null) {
+            sql.append(" AND o.created_at < ?");
+            args.add(Timestamp.from(to));
+        }
+        if (status != null) {
+            sql.append(" AND o.status = ?");
+            args.add(status.name());
+        }
+        sql.append(" ORDER BY o.created_at, o.id");
+
+        long started = System.currentTimeMillis();
+        Writer w = new Writer(out);
+        jdbc.query(sql.toString(), w::row, args.toArray());
+        w.flush();
+        log.info("[EXPORT] Wrote {} orders (from={}, to={}, status={}) in {} ms",
+                w.count, from, to, status, System.currentTimeMillis() - started);
+        return w.count;
+    }
+
+    // Gom dòng item theo order (result set đã sắp theo o.id trong cùng created_at)
+    private final class Writer {
+        private final OutputStream out;
+        private OrderDTO current;
+        private long count;
+
+        Writer(OutputStream out) { this.out = out; }
+
+        void row(ResultSet rs) throws SQLException {
+            String id = rs.getString("id");
+            if (current == null || !current.getOrderId().equals(id)) {
+                flush();
+                Timestamp created = rs.getTimestamp("created_at");
+                current = OrderDTO.builder()
+                        .orderId(id)
+                        .userId(rs.getString("user_id"))
+                        .status(rs.getString("status"))
+                        .totalAmount(rs.getBigDecimal("total_amount"))
+                        .createdAt(created == null ? null : created.toInstant())
+                        .items(new ArrayList<>())
+                        .build();
+            }
+            String productId = rs.getString("product_id");
+            if (productId == null) return; // order không có item (LEFT JOIN)
+            BigDecimal unit = rs.getBigDecimal("unit_price");
+            int qty = rs.getInt("quantity");
+            BigDecimal line = rs.getBigDecimal("line_amount");
+            current.getItems().add(OrderItemDTO.builder()
+                    .productId(productId)
+                    .size(rs.getString("size"))
+                    .quantity(qty)
+                    .unitPrice(unit)
+                    .lineAmount(line != null || unit == null ? line : unit.multiply(BigDecimal.valueOf(qty)))
+                    .build());
+        }
+
+        void flush() {
+            if (current == null) return;
+            try {
+                out.write(om.writeValueAsBytes(current));
+                out.write('\n');
+            } catch (IOException e) {
+                // client ngắt kết nối: dừng đọc cursor
+                throw new UncheckedIOException(e);
+            }
+            count++;
+            current = null;
+        }
+    }
+}
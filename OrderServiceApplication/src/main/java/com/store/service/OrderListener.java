@@ -2,8 +2,10 @@ package com.store.service;
 
 import com.store.dto.OrderDTO;
 import com.store.event.ReleaseStock;
+import com.store.event.StockHoldExpired;
 import com.store.event.StockRejected;
 import com.store.event.StockReserved;
+import com.store.model.Order;
 import com.store.model.OrderItemStatus;
 import com.store.model.OrderStatus;
 import com.store.repository.OrderItemRepository;
@@ -15,6 +17,8 @@ import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+
 @Slf4j
 @Component
 @RequiredArgsConstructor
@@ -23,36 +27,53 @@ public class OrderListener {
     private final OrderRepository orderRepository;
     private final OrderItemRepository orderItemRepository;
     private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final OrderStatusStream statusStream;
+    private final OrderSummaryStore summaries;
 
+    /**
+     * Mỗi event chỉ chạy vài UPDATE có điều kiện, không nạp cả order + items:
+     * chuyển dòng PENDING -> RESERVED, giảm orders.pending_lines, về 0 thì PENDING -> CONFIRMED.
+     * Event lặp không đổi được dòng nào nên không bị trừ 2 lần; order chỉ được confirm 1 lần dù các event
+     * của nó đến đồng thời.
+     */
     @KafkaListener(
             topics = "stock-reserved",
             containerFactory = "stockReservedKafkaListenerFactory"
     )
     @Transactional
-    public void onStockReserved(StockReserved evt) {
-        var o = orderRepository.findById(evt.getOrderId()).orElse(null);
-        if (o == null) {
-            kafkaTemplate.send("release-stock",
-                    ReleaseStock.builder()
-                            .orderId(evt.getOrderId())
-                            .productId(evt.getProductId())
-                            .size(evt.getSize())
-                            .quantity(evt.getQuantity())
-                            .build());
-            return;
+    public void onStockReserved(List<StockReserved> evts) {
+        for (StockReserved evt : evts) {
+            onStockReserved(evt);
         }
+    }
 
-        orderItemRepository.findByOrderIdAndProductIdAndSize(o.getId(), evt.getProductId(), evt.getSize())
-                .ifPresent(i -> i.setItemStatus(OrderItemStatus.RESERVED));
-
-        boolean allReserved = o.getItems().stream()
-                .allMatch(i -> i.getItemStatus() == OrderItemStatus.RESERVED);
+    private void onStockReserved(StockReserved evt) {
+        String orderId = evt.getOrderId();
+        int moved = orderItemRepository.transition(orderId, evt.getProductId(), evt.getSize(),
+                OrderItemStatus.PENDING, OrderItemStatus.RESERVED);
+        if (moved == 0) {
+            if (!orderRepository.existsById(orderId)) {
+                kafkaTemplate.send("release-stock", orderId,
+                        ReleaseStock.builder()
+                                .orderId(orderId)
+                                .productId(evt.getProductId())
+                                .size(evt.getSize())
+                                .quantity(evt.getQuantity())
+                                .build());
+            }
+            return;
+        }
 
-        if (allReserved && o.getStatus() != OrderStatus.CONFIRMED) {
-            o.setStatus(OrderStatus.CONFIRMED);
-            orderRepository.save(o);
-            kafkaTemplate.send("order-confirmed",
-                    OrderDTO.builder().orderId(o.getId()).userId(o.getUserId()).status(o.getStatus().name()).build());
+        // order cũ có thể còn 2 dòng cùng productId+size: transition chuyển cả hai
+        if (orderRepository.decrementPendingLines(orderId, moved) == 0) {
+            orderRepository.initPendingLines(orderId, OrderItemStatus.RESERVED);
+        }
+        if (orderRepository.confirmIfComplete(orderId, OrderStatus.PENDING, OrderStatus.CONFIRMED) == 1) {
+            String userId = orderRepository.findUserIdById(orderId).orElse(null);
+            kafkaTemplate.send("order-confirmed", orderId,
+                    OrderDTO.builder().orderId(orderId).userId(userId).status(OrderStatus.CONFIRMED.name()).build());
+            summaries.statusAfterCommit(userId, orderId, OrderStatus.CONFIRMED);
+            statusStream.publishAfterCommit(orderId, OrderStatus.CONFIRMED, null);
         }
     }
 
@@ -66,21 +87,45 @@ public class OrderListener {
                 .ifPresent(i -> i.setItemStatus(OrderItemStatus.REJECTED));
 
         if (o.getStatus() != OrderStatus.CANCELLED) {
-            o.setStatus(OrderStatus.CANCELLED);
-            orderRepository.save(o);
-
-            o.getItems().stream()
-                    .filter(i -> i.getItemStatus() == OrderItemStatus.RESERVED)
-                    .forEach(i -> kafkaTemplate.send("release-stock",
-                            ReleaseStock.builder()
-                                    .orderId(o.getId())
-                                    .productId(i.getProductId())
-                                    .size(i.getSize())
-                                    .quantity(i.getQuantity())
-                                    .build()));
+            cancel(o);
+        }
+    }
 
-            kafkaTemplate.send("order-cancelled",
-                    OrderDTO.builder().orderId(o.getId()).userId(o.getUserId()).status(o.getStatus().name()).build());
+    /**
+     * Inventory đã tự trả hàng vì order giữ hàng quá hạn mà chưa thanh toán -> huỷ order.
+     * release-stock vẫn được gửi cho các dòng RESERVED: inventory coi là duplicate,
+     * còn product-service dựa vào đó để cộng lại tồn kho theo size.
+     */
+    @KafkaListener(topics = "stock-hold-expired", containerFactory = "stockHoldExpiredKafkaListenerFactory")
+    @Transactional
+    public void onStockHoldExpired(StockHoldExpired evt) {
+        var o = orderRepository.findById(evt.getOrderId()).orElse(null);
+        if (o == null) return;
+        if (o.getStatus() == OrderStatus.PAID || o.getStatus() == OrderStatus.CANCELLED) {
+            log.info("[ORDER] Bỏ qua stock-hold-expired orderId={}, status={}", o.getId(), o.getStatus());
+            return;
         }
+        log.info("[ORDER] Hold expired, cancel orderId={}", o.getId());
+        cancel(o);
+    }
+
+    private void cancel(Order o) {
+        o.setStatus(OrderStatus.CANCELLED);
+        orderRepository.save(o);
+
+        o.getItems().stream()
+                .filter(i -> i.getItemStatus() == OrderItemStatus.RESERVED)
+                .forEach(i -> kafkaTemplate.send("release-stock", o.getId(),
+                        ReleaseStock.builder()
+                                .orderId(o.getId())
+                                .productId(i.getProductId())
+                                .size(i.getSize())
+                                .quantity(i.getQuantity())
+                                .build()));
+
+        kafkaTemplate.send("order-cancelled", o.getId(),
+                OrderDTO.builder().orderId(o.getId()).userId(o.getUserId()).status(o.getStatus().name()).build());
+        summaries.statusAfterCommit(o.getUserId(), o.getId(), OrderStatus.CANCELLED);
+        statusStream.publishAfterCommit(o.getId(), OrderStatus.CANCELLED, null);
     }
 }
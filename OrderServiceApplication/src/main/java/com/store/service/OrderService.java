@@ -1,5 +1,7 @@
 package com.store.service;
 
+import com.store.client.ProductClient;
+import com.store.dto.CursorPage;
 import com.store.dto.OrderDTO;
 import com.store.dto.request.OrderCreateRequest;
 import com.store.dto.request.OrderItemRequest;
@@ -14,18 +16,18 @@ import com.store.dto.request.OrderRequest;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronization;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
-import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.text.Normalizer;
+import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -37,163 +39,154 @@ public class OrderService {
 
     private final OrderRepository orderRepository;
     private final KafkaTemplate<String, Object> kafkaTemplate;
-    private final RestTemplate restTemplate;
+    private final ProductClient productClient;
+    private final OrderStatusStream statusStream;
+    private final OrderSummaryStore summaries;
+
+    @Value("${order.page.default-size:20}")
+    private int defaultPageSize;
+
+    @Value("${order.page.max-size:100}")
+    private int maxPageSize;
 
     /* ========================= Helpers ========================= */
-    private ProductDTO getProduct(String productId) {
-        return restTemplate.getForObject(
-                "http://product-service/api/products/" + productId,
-                ProductDTO.class);
-    }
+    private void assertSizeInStock(ProductDTO p, String productId, String size, int quantity) {
+        if (quantity <= 0) throw new IllegalArgumentException("quantity phải > 0");
 
-    private Map<String, Object> getProductAsMap(String productId) {
-        ResponseEntity<Map<String, Object>> resp = restTemplate.exchange(
-                "http://product-service/api/products/" + productId,
-                HttpMethod.GET, null, new ParameterizedTypeReference<>() {
-                });
-        return resp.getBody();
+        if (!ProductClient.hasEnough(p, size, quantity)) {
+            throw new IllegalStateException("Không đủ tồn size '" + size + "' cho productId=" + productId
+                    + " (yêu cầu " + quantity + ")");
+        }
     }
 
-    private boolean hasEnoughFromDto(ProductDTO p, String size, int need) {
-        try {
-            Object sizesObj = p.getSizes();
-            if (sizesObj == null) return false;
-
-            if (sizesObj instanceof java.util.Collection<?> sizes) {
-                for (Object obj : sizes) {
-                    if (obj == null) continue;
-                    try {
-                        var c = obj.getClass();
-                        var getSize = c.getMethod("getSize");
-                        var getQty = c.getMethod("getQuantity");
-                        String sName = String.valueOf(getSize.invoke(obj));
-                        Integer sQty = (Integer) getQty.invoke(obj);
-                        if (sName != null && sName.equalsIgnoreCase(size)) {
-                            return sQty != null && sQty >= need;
-                        }
-                    } catch (Exception ignore) { /* bỏ qua phần tử không khớp */ }
-                }
-                return false;
-            }
+    /* ========================= Create Order ========================= */
+    private static final String UUID_RE =
+            "^[0-9a-f]{8}-[0-9a-f]{4}-[1-7][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$";
 
-            if (sizesObj instanceof String s) {
-                String[] tokens = s.split("[,;|]");
-                for (String raw : tokens) {
-                    if (raw == null) continue;
-                    String t = raw.trim();
-                    if (t.isEmpty()) continue;
-
-                    String name = t;
-                    int qty = 0;
-                    int idx = t.indexOf(':');
-                    if (idx >= 0) {
-                        name = t.substring(0, idx).trim();
-                        try {
-                            qty = Integer.parseInt(t.substring(idx + 1).trim());
-                            if (qty < 0) qty = 0;
-                        } catch (NumberFormatException ignore) {
-                            qty = 0;
-                        }
-                    }
-                    if (name.equalsIgnoreCase(size)) {
-                        return qty >= need;
-                    }
-                }
-                return false;
-            }
+    @Transactional
+    public Order createOrder(String userId, List<OrderItemRequest> items) {
+        Order order = newPendingOrder(userId, items);
+        priceItems(order);
+        Order saved = orderRepository.save(order);
+        summaries.putAfterCommit(toDto(saved));
+        publishOrderCreatedAfterCommit(saved);
+        return saved;
+    }
 
-            return false;
-        } catch (Exception e) {
-            return false;
-        }
+    /**
+     * Chế độ async: chỉ kiểm tra request và lưu order PENDING (chưa có giá), AsyncOrderProcessor định giá,
+     * kiểm tra tồn và phát order-created sau khi controller đã trả 202.
+     */
+    @Transactional
+    public Order acceptOrder(String userId, List<OrderItemRequest> items) {
+        Order saved = orderRepository.save(newPendingOrder(userId, items));
+        summaries.putAfterCommit(toDto(saved));
+        return saved;
     }
 
-    private boolean hasEnoughFromMap(Map<String, Object> product, String size, int need) {
-        if (product == null) return false;
-        Object sizesObj = product.get("sizes");
-        if (!(sizesObj instanceof Collection<?> sizes)) return false;
-        for (Object o : sizes) {
-            if (o instanceof Map<?, ?> m) {
-                Object sName = m.get("size");
-                Object sQty = m.get("quantity");
-                if (sName != null && size.equalsIgnoreCase(String.valueOf(sName))) {
-                    try {
-                        int qty = Integer.parseInt(String.valueOf(sQty));
-                        return qty >= need;
-                    } catch (Exception ignore) {
-                        return false;
-                    }
-                }
-            }
+    /**
+     * Hoàn tất order đã nhận bằng acceptOrder: định giá + kiểm tra tồn rồi phát order-created.
+     * Không hợp lệ (hết hàng, giá sai, không có product) thì huỷ order. Lỗi gọi product-service thì ném ra để retry.
+     */
+    @Transactional
+    public void completeAcceptedOrder(String orderId) {
+        // khoá order: worker thứ 2 chờ rồi thấy order đã được định giá/huỷ thì bỏ qua
+        Order o = orderRepository.findByIdForUpdate(orderId).orElse(null);
+        if (o == null || o.getStatus() != OrderStatus.PENDING || !unpriced(o)) return;
+        try {
+            priceItems(o);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            rejectAcceptedOrder(o, e.getMessage());
+            return;
         }
-        return false;
+        Order saved = orderRepository.save(o);
+        summaries.putAfterCommit(toDto(saved));
+        publishOrderCreatedAfterCommit(saved);
     }
 
-    private void assertSizeInStock(String productId, String size, int quantity) {
-        if (quantity <= 0) throw new IllegalArgumentException("quantity phải > 0");
-
-        ProductDTO p = getProduct(productId);
-        if (p == null) throw new IllegalStateException("Không tìm thấy sản phẩm: " + productId);
+    @Transactional
+    public void rejectAcceptedOrder(String orderId, String reason) {
+        orderRepository.findByIdForUpdate(orderId)
+                .filter(o -> o.getStatus() == OrderStatus.PENDING && unpriced(o))
+                .ifPresent(o -> rejectAcceptedOrder(o, reason));
+    }
 
-        boolean ok = hasEnoughFromDto(p, size, quantity);
-        if (!ok) {
-            // fallback đọc Map (trong trường hợp DTO không có size/quantity)
-            Map<String, Object> map = getProductAsMap(productId);
-            ok = hasEnoughFromMap(map, size, quantity);
-        }
+    private void rejectAcceptedOrder(Order o, String reason) {
+        o.setStatus(OrderStatus.CANCELLED);
+        orderRepository.save(o);
+        summaries.statusAfterCommit(o.getUserId(), o.getId(), OrderStatus.CANCELLED);
+        statusStream.publishAfterCommit(o.getId(), OrderStatus.CANCELLED, reason);
+        log.info("Rejected accepted order {}: {}", o.getId(), reason);
+    }
 
-        if (!ok) {
-            throw new IllegalStateException("Không đủ tồn size '" + size + "' cho productId=" + productId
-                    + " (yêu cầu " + quantity + ")");
-        }
+    /** Order async chưa được định giá (xử lý dở khi instance dừng), tạo trước createdBefore. */
+    @Transactional(readOnly = true)
+    public List<String> findUnpricedPendingOrderIds(Instant createdBefore) {
+        return orderRepository.findUnpricedIdsByStatus(OrderStatus.PENDING, createdBefore);
     }
 
-    /* ========================= Create Order ========================= */
-    private static final String UUID_RE =
-            "^[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$";
+    private static boolean unpriced(Order o) {
+        return o.getItems().stream().anyMatch(i -> i.getUnitPrice() == null);
+    }
 
-    @Transactional
-    public Order createOrder(String userId, List<OrderItemRequest> items) {
+    // Dòng trùng (productId, size) được gộp: inventory giữ/trả theo productId#size nên mỗi cặp chỉ được là 1 dòng
+    private Order newPendingOrder(String userId, List<OrderItemRequest> items) {
         if (items == null || items.isEmpty()) {
             throw new IllegalArgumentException("Danh sách items trống");
         }
 
+        Map<List<String>, OrderItem> lines = new LinkedHashMap<>();
+        for (var it : items) {
+            if (it.getProductId() == null || it.getProductId().isBlank()) {
+                throw new IllegalArgumentException("productId không được trống");
+            }
+            if (it.getQuantity() == null || it.getQuantity() <= 0) {
+                throw new IllegalArgumentException("quantity phải > 0");
+            }
+            OrderItem line = lines.get(Arrays.asList(it.getProductId(), it.getSize()));
+            if (line != null) {
+                line.setQuantity(line.getQuantity() + it.getQuantity());
+                continue;
+            }
+            lines.put(Arrays.asList(it.getProductId(), it.getSize()), OrderItem.builder()
+                    .productId(it.getProductId())
+                    .size(it.getSize())
+                    .quantity(it.getQuantity())
+                    .itemStatus(OrderItemStatus.PENDING)
+                    .build());
+        }
+
         Order order = Order.builder()
                 .userId(userId)
                 .status(OrderStatus.PENDING)
                 .totalAmount(BigDecimal.ZERO)
+                .pendingLines(lines.size())
                 .build();
+        lines.values().forEach(order::addItem);
+        return order;
+    }
 
-        BigDecimal total = BigDecimal.ZERO;
+    // Giá + tồn theo size cho mọi dòng, 1 round trip cho cả giỏ hàng
+    private void priceItems(Order order) {
+        Map<String, ProductDTO> products = productClient.getProducts(
+                order.getItems().stream().map(OrderItem::getProductId).toList());
 
-        for (var it : items) {
-            ProductDTO p = getProduct(it.getProductId());
+        BigDecimal total = BigDecimal.ZERO;
+        for (OrderItem item : order.getItems()) {
+            ProductDTO p = products.get(item.getProductId());
             if (p == null || p.getPrice() == null || p.getPrice().signum() <= 0) {
-                throw new IllegalStateException("Giá không hợp lệ cho productId=" + it.getProductId());
+                throw new IllegalStateException("Giá không hợp lệ cho productId=" + item.getProductId());
             }
 
-            assertSizeInStock(it.getProductId(), it.getSize(), it.getQuantity());
+            assertSizeInStock(p, item.getProductId(), item.getSize(), item.getQuantity());
 
             BigDecimal unit = p.getPrice();
-            BigDecimal line = unit.multiply(BigDecimal.valueOf(it.getQuantity()));
-
-            OrderItem item = OrderItem.builder()
-                    .productId(it.getProductId())
-                    .size(it.getSize())
-                    .quantity(it.getQuantity())
-                    .unitPrice(unit)
-                    .lineAmount(line)
-                    .itemStatus(OrderItemStatus.PENDING)
-                    .build();
-
-            order.addItem(item);
+            BigDecimal line = unit.multiply(BigDecimal.valueOf(item.getQuantity()));
+            item.setUnitPrice(unit);
+            item.setLineAmount(line);
             total = total.add(line);
         }
-
         order.setTotalAmount(total);
-        Order saved = orderRepository.save(order);
-        publishOrderCreatedAfterCommit(saved);
-        return saved;
     }
 
     /* ========================= Publish event ========================= */
@@ -216,7 +209,7 @@ public class OrderService {
         TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
             @Override
             public void afterCommit() {
-                kafkaTemplate.send("order-created", evt);
+                kafkaTemplate.send("order-created", saved.getId(), evt);
                 log.info("Published 'order-created' (items={}) for {}", saved.getItems().size(), saved.getId());
             }
         });
@@ -224,17 +217,38 @@ public class OrderService {
 
     /* ========================= Queries ========================= */
 
-    public List<Order> getAllOrders() {
-        return orderRepository.findAll();
-    }
-
     public Order getOrderById(String id) {
         return orderRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Order not found with id=" + id));
     }
 
-    public List<Order> getAllByUser(String userId) {
-        return orderRepository.findByUserIdOrderByIdDesc(userId);
+    /**
+     * Order của user, mới nhất trước, theo trang keyset (cursor lấy từ nextCursor của trang trước).
+     * Trang đầu đọc từ read model Redis (OrderSummaryStore, 1 HGETALL); chưa có thì dựng lại từ DB.
+     * Trang sau (có cursor) hoặc Redis lỗi thì đọc DB.
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<OrderDTO> getPageByUser(String userId, String cursor, Integer limit) {
+        int size = pageSize(limit);
+        Cursor c = Cursor.decode(cursor);
+        if (c == null) {
+            try {
+                List<OrderDTO> recent = summaries.recent(userId);
+                if (recent == null) {
+                    recent = toDtos(loadPage(orderRepository.findPageIdsByUser(userId,
+                            PageRequest.of(0, summaries.maxEntries())), summaries.maxEntries())).getItems();
+                    summaries.rebuild(userId, recent);
+                }
+                return pageOf(recent, size);
+            } catch (RuntimeException e) {
+                log.warn("Order summary read model unavailable for user {}: {}", userId, e.getMessage());
+            }
+        }
+        PageRequest page = PageRequest.of(0, size + 1);
+        List<String> ids = c == null
+                ? orderRepository.findPageIdsByUser(userId, page)
+                : orderRepository.findPageIdsByUserBefore(userId, c.createdAt(), c.id(), page);
+        return toDtos(loadPage(ids, size));
     }
 
     public Order getByIdForUser(String orderId, String userId) {
@@ -273,12 +287,72 @@ public class OrderService {
                 .userId(o.getUserId())
                 .status(o.getStatus() == null ? null : o.getStatus().name())
                 .totalAmount(total)
+                .createdAt(o.getCreatedAt())
                 .items(itemDTOs)
                 .build();
     }
 
     @Transactional(readOnly = true)
-    public List<OrderDTO> getAllOrderDtos() {
-        return orderRepository.findAllWithItems().stream().map(this::toDto).toList();
+    public CursorPage<OrderDTO> getOrderDtoPage(String cursor, Integer limit) {
+        int size = pageSize(limit);
+        Cursor c = Cursor.decode(cursor);
+        PageRequest page = PageRequest.of(0, size + 1);
+        List<String> ids = c == null
+                ? orderRepository.findPageIds(page)
+                : orderRepository.findPageIdsBefore(c.createdAt(), c.id(), page);
+        return toDtos(loadPage(ids, size));
+    }
+
+    /* ========================= Paging ========================= */
+
+    private int pageSize(Integer limit) {
+        if (limit == null) return defaultPageSize;
+        if (limit <= 0) throw new IllegalArgumentException("limit phải > 0");
+        return Math.min(limit, maxPageSize);
+    }
+
+    // ids đã theo thứ tự trang (lấy dư 1 để biết còn trang sau); items của cả trang nạp trong 1 query
+    private CursorPage<Order> loadPage(List<String> ids, int size) {
+        boolean more = ids.size() > size;
+        List<String> pageIds = more ? ids.subList(0, size) : ids;
+        if (pageIds.isEmpty()) return new CursorPage<>(List.of(), null);
+
+        Map<String, Order> byId = orderRepository.findAllWithItemsByIdIn(pageIds).stream()
+                .collect(Collectors.toMap(Order::getId, o -> o));
+        List<Order> orders = pageIds.stream().map(byId::get).filter(Objects::nonNull).toList();
+        Order last = orders.get(orders.size() - 1);
+        return new CursorPage<>(orders, more ? new Cursor(last.getCreatedAt(), last.getId()).encode() : null);
+    }
+
+    private CursorPage<OrderDTO> toDtos(CursorPage<Order> page) {
+        return new CursorPage<>(page.getItems().stream().map(this::toDto).toList(), page.getNextCursor());
+    }
+
+    // Trang đầu từ danh sách đã sắp của read model; danh sách đủ max-entries thì có thể còn order cũ hơn trong DB
+    private CursorPage<OrderDTO> pageOf(List<OrderDTO> sorted, int size) {
+        boolean more = sorted.size() > size || sorted.size() >= summaries.maxEntries();
+        if (sorted.isEmpty() || !more) return new CursorPage<>(sorted, null);
+        List<OrderDTO> items = sorted.subList(0, Math.min(size, sorted.size()));
+        OrderDTO last = items.get(items.size() - 1);
+        return new CursorPage<>(items, new Cursor(last.getCreatedAt(), last.getOrderId()).encode());
+    }
+
+    /** Vị trí (created_at, id) của dòng cuối trang, mã hoá base64url để client chỉ việc gửi lại. */
+    private record Cursor(Instant createdAt, String id) {
+        String encode() {
+            String raw = createdAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            if (cursor == null || cursor.isBlank()) return null;
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int sep = raw.indexOf('|');
+                return new Cursor(Instant.parse(raw.substring(0, sep)), raw.substring(sep + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("cursor không hợp lệ");
+            }
+        }
     }
 }
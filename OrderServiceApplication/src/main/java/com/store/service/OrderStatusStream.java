@@ -0,0 +1,129 @@
+package com.store.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.store.model.OrderStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Đẩy trạng thái order tới client qua server-sent events thay cho polling /api/orders/mine/{id}.
+ * OrderListener/OrderService phát thay đổi sau khi commit lên kênh Redis order-status, mọi instance
+ * đều nghe kênh này và gửi cho các SseEmitter đang mở ở instance mình.
+ * Trạng thái kết thúc của saga (CONFIRMED, CANCELLED, PAID) thì gửi xong là đóng stream.
+ */
+@Slf4j
+@Component
+public class OrderStatusStream {
+
+    private static final String CHANNEL = "order-status";
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper om = new ObjectMapper();
+    private final Map<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    @Value("${order.status-stream.timeout-ms:120000}")
+    private long timeoutMs;
+
+    public OrderStatusStream(StringRedisTemplate redis, RedisMessageListenerContainer container) {
+        this.redis = redis;
+        container.addMessageListener((message, pattern) -> onMessage(new String(message.getBody())),
+                new ChannelTopic(CHANNEL));
+    }
+
+    private static boolean terminal(String status) {
+        return !OrderStatus.PENDING.name().equals(status);
+    }
+
+    /**
+     * Mở stream cho orderId. Đăng ký emitter trước rồi mới đọc trạng thái hiện tại,
+     * để thay đổi xảy ra giữa 2 bước không bị mất (cùng lắm client nhận 2 lần).
+     */
+    public SseEmitter subscribe(String orderId, Supplier<OrderStatus> current) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        List<SseEmitter> list = emitters.computeIfAbsent(orderId, k -> new CopyOnWriteArrayList<>());
+        list.add(emitter);
+        Runnable remove = () -> emitters.computeIfPresent(orderId, (k, l) -> {
+            l.remove(emitter);
+            return l.isEmpty() ? null : l;
+        });
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        String status = current.get().name();
+        send(emitter, event(orderId, status, null));
+        if (terminal(status)) emitter.complete();
+        return emitter;
+    }
+
+    /** Phát trạng thái sau khi transaction hiện tại commit (hoặc ngay nếu không có transaction). */
+    public void publishAfterCommit(String orderId, OrderStatus status, String reason) {
+        Map<String, Object> evt = event(orderId, status.name(), reason);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(evt);
+                }
+            });
+        } else {
+            publish(evt);
+        }
+    }
+
+    private void publish(Map<String, Object> evt) {
+        try {
+            redis.convertAndSend(CHANNEL, om.writeValueAsString(evt));
+        } catch (Exception e) {
+            // client vẫn đọc được trạng thái qua GET /api/orders/mine/{id}
+            log.warn("[ORDER-SSE] Publish failed orderId={}: {}", evt.get("orderId"), e.getMessage());
+        }
+    }
+
+    private void onMessage(String json) {
+        try {
+            Map<?, ?> evt = om.readValue(json, Map.class);
+            String orderId = String.valueOf(evt.get("orderId"));
+            List<SseEmitter> list = emitters.get(orderId);
+            if (list == null) return;
+            boolean done = terminal(String.valueOf(evt.get("status")));
+            for (SseEmitter emitter : list) {
+                send(emitter, evt);
+                if (done) emitter.complete();
+            }
+        } catch (Exception e) {
+            log.warn("[ORDER-SSE] Invalid message: {}", json, e);
+        }
+    }
+
+    private Map<String, Object> event(String orderId, String status, String reason) {
+        Map<String, Object> evt = new LinkedHashMap<>();
+        evt.put("orderId", orderId);
+        evt.put("status", status);
+        if (reason != null) evt.put("reason", reason);
+        return evt;
+    }
+
+    private void send(SseEmitter emitter, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name("status").data(data));
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+        }
+    }
+}
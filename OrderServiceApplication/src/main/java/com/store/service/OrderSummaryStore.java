@@ -0,0 +1,161 @@
+package com.store.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.store.dto.OrderDTO;
+import com.store.model.OrderStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Read model "đơn của tôi": hash order:summary:{userId} chứa tối đa max-entries order mới nhất của user,
+ * đọc bằng 1 HGETALL. Field {orderId} là OrderDTO (JSON), field {orderId}:status là trạng thái hiện tại,
+ * để OrderListener đổi trạng thái chỉ bằng 1 HSET mà không phải đọc-sửa-ghi JSON.
+ * OrderService/OrderListener ghi sau khi commit. Hash chưa có field _built (mới hết TTL, Redis bị flush...)
+ * thì coi như chưa dựng: OrderService dựng lại từ DB bằng HSETNX nên không đè các thay đổi mới hơn vừa ghi vào.
+ */
+@Slf4j
+@Component
+public class OrderSummaryStore {
+
+    private static final String BUILT = "_built";
+    private static final String STATUS_SUFFIX = ":status";
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper om;
+
+    @Value("${order.summary.max-entries:200}")
+    private int maxEntries;
+
+    @Value("${order.summary.ttl-hours:168}")
+    private long ttlHours;
+
+    public OrderSummaryStore(StringRedisTemplate redis, ObjectMapper om) {
+        this.redis = redis;
+        this.om = om;
+    }
+
+    private String key(String userId) { return "order:summary:" + userId; }
+
+    public int maxEntries() { return maxEntries; }
+
+    /** Ghi (hoặc thay) summary của order sau khi transaction hiện tại commit. */
+    public void putAfterCommit(OrderDTO dto) {
+        afterCommit(() -> {
+            String json = om.writeValueAsString(dto);
+            String key = key(dto.getUserId());
+            redis.executePipelined((RedisCallback<Object>) conn -> {
+                StringRedisConnection sc = (StringRedisConnection) conn;
+                sc.hSet(key, dto.getOrderId(), json);
+                sc.hSet(key, dto.getOrderId() + STATUS_SUFFIX, dto.getStatus());
+                sc.expire(key, Duration.ofHours(ttlHours).toSeconds());
+                return null;
+            });
+        });
+    }
+
+    /** Đổi trạng thái order sau khi commit. */
+    public void statusAfterCommit(String userId, String orderId, OrderStatus status) {
+        if (userId == null) return;
+        afterCommit(() -> redis.opsForHash().put(key(userId), orderId + STATUS_SUFFIX, status.name()));
+    }
+
+    /** Order mới nhất trước (created_at, id giảm dần); null nếu read model của user chưa được dựng. */
+    public List<OrderDTO> recent(String userId) {
+        String key = key(userId);
+        Map<Object, Object> raw = redis.opsForHash().entries(key);
+        if (!raw.containsKey(BUILT)) return null;
+
+        List<OrderDTO> out = new ArrayList<>(raw.size() / 2);
+        for (var e : raw.entrySet()) {
+            String field = (String) e.getKey();
+            if (field.equals(BUILT) || field.endsWith(STATUS_SUFFIX)) continue;
+            try {
+                OrderDTO dto = om.readValue((String) e.getValue(), OrderDTO.class);
+                Object status = raw.get(field + STATUS_SUFFIX);
+                if (status != null) dto.setStatus((String) status);
+                out.add(dto);
+            } catch (Exception ex) {
+                log.warn("[ORDER-SUMMARY] Bỏ qua field {} của {} không đọc được", field, key, ex);
+            }
+        }
+        out.sort(NEWEST_FIRST);
+        if (out.size() > maxEntries) {
+            trim(key, out.subList(maxEntries, out.size()));
+            out = new ArrayList<>(out.subList(0, maxEntries));
+        }
+        return out;
+    }
+
+    /** Dựng lại từ DB (các order mới nhất của user); field đã có giữ nguyên vì được ghi sau commit nên không cũ hơn. */
+    public void rebuild(String userId, List<OrderDTO> orders) {
+        String key = key(userId);
+        List<String[]> fields = new ArrayList<>(orders.size());
+        for (OrderDTO dto : orders) {
+            try {
+                fields.add(new String[]{dto.getOrderId(), om.writeValueAsString(dto), dto.getStatus()});
+            } catch (Exception ex) {
+                log.warn("[ORDER-SUMMARY] Serialize orderId={} failed", dto.getOrderId(), ex);
+            }
+        }
+        redis.executePipelined((RedisCallback<Object>) conn -> {
+            StringRedisConnection sc = (StringRedisConnection) conn;
+            for (String[] f : fields) {
+                sc.hSetNX(key, f[0], f[1]);
+                sc.hSetNX(key, f[0] + STATUS_SUFFIX, f[2]);
+            }
+            sc.hSet(key, BUILT, String.valueOf(System.currentTimeMillis()));
+            sc.expire(key, Duration.ofHours(ttlHours).toSeconds());
+            return null;
+        });
+        log.info("[ORDER-SUMMARY] Rebuilt {} with {} orders", key, fields.size());
+    }
+
+    private void trim(String key, List<OrderDTO> oldest) {
+        List<Object> fields = new ArrayList<>(oldest.size() * 2);
+        for (OrderDTO dto : oldest) {
+            fields.add(dto.getOrderId());
+            fields.add(dto.getOrderId() + STATUS_SUFFIX);
+        }
+        redis.opsForHash().delete(key, fields.toArray());
+    }
+
+    private static final Comparator<OrderDTO> NEWEST_FIRST = Comparator
+            .comparing(OrderDTO::getCreatedAt, Comparator.nullsFirst(Comparator.<Instant>naturalOrder()))
+            .thenComparing(OrderDTO::getOrderId)
+            .reversed();
+
+    private interface RedisWrite {
+        void run() throws Exception;
+    }
+
+    // Redis lỗi không được làm hỏng luồng đặt hàng (order đã commit); read model được dựng lại khi key hết TTL
+    private void afterCommit(RedisWrite write) {
+        Runnable safe = () -> {
+            try {
+                write.run();
+            } catch (Exception e) {
+                log.warn("[ORDER-SUMMARY] Write failed: {}", e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    safe.run();
+                }
+            });
+        } else {
+            safe.run();
+        }
+    }
+}
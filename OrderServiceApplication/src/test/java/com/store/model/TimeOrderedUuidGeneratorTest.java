@@ -0,0 +1,62 @@
+package com.store.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeOrderedUuidGeneratorTest {
+
+    @Test
+    void bitLayoutIsVersion7WithMillisPrefix() {
+        long before = System.currentTimeMillis();
+        UUID id = TimeOrderedUuidGenerator.next();
+        long after = System.currentTimeMillis();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant()); // RFC 9562 (10xx)
+        long millis = id.getMostSignificantBits() >>> 16;
+        // bộ đếm tràn (test khác vừa sinh dồn dập) có thể đã mượn trước vài chục ms
+        assertTrue(millis >= before && millis <= after + 1000, "48 bit đầu phải là epoch millis: " + millis);
+        assertTrue(id.toString().matches("^[0-9a-f]{8}-[0-9a-f]{4}-7[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$"));
+    }
+
+    @Test
+    void idsIncreaseAsStringsEvenWithinTheSameMillisecond() {
+        // > 4096 id liên tiếp: chắc chắn có nhiều id trong cùng 1 ms và có lần tràn bộ đếm 12 bit
+        String prev = TimeOrderedUuidGenerator.next().toString();
+        for (int i = 0; i < 200_000; i++) {
+            String cur = TimeOrderedUuidGenerator.next().toString();
+            assertTrue(cur.compareTo(prev) > 0, "id phải tăng: " + prev + " -> " + cur);
+            prev = cur;
+        }
+    }
+
+    @Test
+    void uniqueAcrossThreads() throws Exception {
+        int threads = 8;
+        int perThread = 50_000;
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(pool.submit(() -> {
+                    for (int i = 0; i < perThread; i++) seen.add(TimeOrderedUuidGenerator.next().toString());
+                }));
+            }
+            for (Future<?> f : done) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(threads * perThread, seen.size());
+    }
+}
@@ -0,0 +1,72 @@
+package com.store.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * So sánh tốc độ INSERT vào InnoDB với khoá chính là UUID ngẫu nhiên (v4, GenerationType.UUID cũ)
+ * và UUIDv7 (TimeOrderedUuidGenerator), cùng kiểu cột VARCHAR(255) như bảng orders.
+ * Cần MySQL thật, tạo/xoá bảng bench_uuid_*, nên chỉ chạy khi được yêu cầu:
+ * mvn test -Dtest=UuidInsertBenchmark -Dbench.mysql.url=jdbc:mysql://localhost:3306/bench
+ * -Dbench.mysql.user=root -Dbench.mysql.password=... [-Dbench.rows=1000000]
+ * Khác biệt chỉ rõ khi bảng lớn hơn buffer pool (page split + đọc ngẫu nhiên của v4).
+ */
+@EnabledIfSystemProperty(named = "bench.mysql.url", matches = ".+")
+class UuidInsertBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private final int rows = Integer.getInteger("bench.rows", 1_000_000);
+
+    private Connection connect() throws Exception {
+        String url = System.getProperty("bench.mysql.url");
+        String sep = url.contains("?") ? "&" : "?";
+        return DriverManager.getConnection(url + sep + "rewriteBatchedStatements=true",
+                System.getProperty("bench.mysql.user", "root"), System.getProperty("bench.mysql.password", ""));
+    }
+
+    private double insertRate(String table, Supplier<UUID> ids) throws Exception {
+        try (Connection c = connect(); Statement st = c.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + table);
+            st.execute("CREATE TABLE " + table + " (id VARCHAR(255) NOT NULL PRIMARY KEY, "
+                    + "user_id VARCHAR(255), total_amount DECIMAL(19,2)) ENGINE=InnoDB");
+            c.setAutoCommit(false);
+            long started = System.nanoTime();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "INSERT INTO " + table + " (id, user_id, total_amount) VALUES (?, ?, ?)")) {
+                for (int i = 1; i <= rows; i++) {
+                    ps.setString(1, ids.get().toString());
+                    ps.setString(2, "user-" + (i % 10_000));
+                    ps.setBigDecimal(3, BigDecimal.valueOf(i % 1000, 2));
+                    ps.addBatch();
+                    if (i % BATCH == 0) {
+                        ps.executeBatch();
+                        c.commit();
+                    }
+                }
+                ps.executeBatch();
+                c.commit();
+            }
+            double seconds = (System.nanoTime() - started) / 1e9;
+            c.setAutoCommit(true);
+            st.execute("DROP TABLE " + table);
+            return rows / seconds;
+        }
+    }
+
+    @Test
+    void randomVersusTimeOrderedPrimaryKeys() throws Exception {
+        double v4 = insertRate("bench_uuid_v4", UUID::randomUUID);
+        double v7 = insertRate("bench_uuid_v7", TimeOrderedUuidGenerator::next);
+        System.out.printf("[BENCH] %,d rows: UUIDv4 %,.0f rows/s, UUIDv7 %,.0f rows/s (x%.2f)%n",
+                rows, v4, v7, v7 / v4);
+    }
+}
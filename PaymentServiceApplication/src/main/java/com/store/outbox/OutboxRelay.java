@@ -1,5 +1,6 @@
 package com.store.outbox;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.store.model.OutboxEvent;
 import com.store.repository.OutboxRepository;
 import lombok.RequiredArgsConstructor;
@@ -21,6 +22,7 @@ public class OutboxRelay {
 
     private final OutboxRepository repo;
     private final KafkaTemplate<Object, Object> kafka;
+    private final ObjectMapper om = new ObjectMapper();
 
     @Value("${app.topics.paymentSucceeded}")
     private String topicPaymentSucceeded;
@@ -36,12 +38,13 @@ public class OutboxRelay {
 
         for (OutboxEvent e : batch) {
             try {
+                String key = orderKey(e);
                 switch (e.getEventType()) {
                     case "PAYMENT_SUCCESS" -> {
-                        kafka.send(topicPaymentSucceeded, e.getAggregateId().toString(), e.getPayload());
+                        kafka.send(topicPaymentSucceeded, key, e.getPayload());
                     }
                     case "PAYMENT_FAILED" -> {
-                        kafka.send(topicPaymentFailed, e.getAggregateId().toString(), e.getPayload());
+                        kafka.send(topicPaymentFailed, key, e.getPayload());
                     }
                     default -> log.warn("Unknown eventType: {}", e.getEventType());
                 }
@@ -55,4 +58,15 @@ public class OutboxRelay {
         }
         repo.saveAll(batch);
     }
+
+    // Key theo orderId như các topic saga khác (thứ tự theo order); payload cũ không có orderId thì dùng paymentId
+    private String orderKey(OutboxEvent e) {
+        try {
+            String orderId = om.readTree(e.getPayload()).path("orderId").asText(null);
+            if (orderId != null && !orderId.isBlank()) return orderId;
+        } catch (Exception ignore) {
+            // payload không phải JSON
+        }
+        return e.getAggregateId().toString();
+    }
 }
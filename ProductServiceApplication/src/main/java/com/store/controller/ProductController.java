@@ -19,6 +19,8 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ProductController {
 
+    private static final int MAX_BATCH_IDS = 500;
+
     private final ProductService productService;
     private final ProductRepository productRepository;
     private final KafkaTemplate kafkaTemplate;
@@ -34,6 +36,15 @@ public class ProductController {
         return ResponseEntity.ok(productService.getAllProducts());
     }
 
+    // Tra nhiều product (kèm sizes) trong 1 request, vd. order-service kiểm tra cả giỏ hàng
+    @PostMapping("/batch")
+    public ResponseEntity<List<ProductDTO>> getBatch(@RequestBody List<String> ids) {
+        if (ids == null || ids.size() > MAX_BATCH_IDS) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(productService.getProductsByIds(ids));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<ProductDTO> getById(@PathVariable String id) {
         return ResponseEntity.ok(productService.getProductById(id));
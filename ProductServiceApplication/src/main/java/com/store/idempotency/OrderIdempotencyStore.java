@@ -0,0 +1,51 @@
+package com.store.idempotency;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Khoá idempotency gọn theo order: 1 Redis hash idem:order:{orderId}, mỗi dòng 1 field, 1 TTL chung.
+ * Cùng key với inventory-service (field inv:*); phía product dùng field prod:res / prod:rel.
+ */
+@Component
+public class OrderIdempotencyStore {
+
+    private static final DefaultRedisScript<Long> MARK_ONCE = new DefaultRedisScript<>("""
+            -- KEYS[1]=idem:order:{orderId}, ARGV[1]=field, ARGV[2]=ttlSeconds
+            if redis.call('HSETNX', KEYS[1], ARGV[1], '1') == 0 then
+              return 0
+            end
+            redis.call('EXPIRE', KEYS[1], tonumber(ARGV[2]))
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redis;
+
+    @Value("${idempotency.order-ttl-seconds:604800}")
+    private long ttlSeconds;
+
+    public OrderIdempotencyStore(StringRedisTemplate redis) {
+        this.redis = redis;
+    }
+
+    public String reservedField(String productId, String size) { return "prod:res:" + productId + "#" + size; }
+
+    public String releasedField(String productId, String size) { return "prod:rel:" + productId + "#" + size; }
+
+    /** @return true nếu đây là lần đầu field được ghi cho order (chưa xử lý trước đó) */
+    public boolean markOnce(String orderId, String field) {
+        Long r = redis.execute(MARK_ONCE, List.of(key(orderId)), field, String.valueOf(ttlSeconds));
+        return r != null && r == 1L;
+    }
+
+    /** Xoá đánh dấu để lần gửi lại được xử lý (dùng khi dữ liệu chưa sẵn sàng). */
+    public void clear(String orderId, String field) {
+        redis.opsForHash().delete(key(orderId), field);
+    }
+
+    private String key(String orderId) { return "idem:order:" + orderId; }
+}
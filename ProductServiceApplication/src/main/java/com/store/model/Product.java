@@ -19,7 +19,7 @@ import java.util.*;
 @ToString(exclude = "sizes")
 public class Product {
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedUuid
     private String id;
 
     @NotBlank(message = "Không để trống tên sản phẩm")
@@ -18,7 +18,7 @@ import lombok.*;
 @ToString(exclude = "product")
 public class ProductSize {
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedUuid
     private String id;
 
     @ManyToOne(fetch = FetchType.LAZY, optional = false)
@@ -9,6 +9,8 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface ProductRepository extends JpaRepository<Product, String> {
@@ -42,4 +44,7 @@ public interface ProductRepository extends JpaRepository<Product, String> {
     )
     Optional<Product> findOneAiCiLike(@Param("name") String name);
 
+    // Lấy nhiều product kèm sizes trong 1 câu (tránh N+1 khi sizes LAZY)
+    @Query("select distinct p from Product p left join fetch p.sizes where p.id in :ids")
+    List<Product> findAllWithSizesByIdIn(@Param("ids") Collection<String> ids);
 }
@@ -123,6 +123,13 @@ public class ProductService {
                 product.getQuantity()
         );
     }
+    /** Nhiều product theo id trong 1 query (fetch join sizes); id không tồn tại thì bị bỏ qua. */
+    public List<ProductDTO> getProductsByIds(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) return List.of();
+        return productRepository.findAllWithSizesByIdIn(new HashSet<>(ids)).stream()
+                .map(this::toDto)
+                .toList();
+    }
     public Optional<ProductDTO> getByName(String name) {
         String q = (name == null) ? "" : name.trim();
         if (q.isEmpty()) return Optional.empty();
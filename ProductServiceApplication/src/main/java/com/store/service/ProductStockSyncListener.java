@@ -3,17 +3,16 @@ package com.store.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.store.dto.StockReserved;
 import com.store.dto.ReleaseStock;
+import com.store.idempotency.OrderIdempotencyStore;
 import com.store.model.Product;
 import com.store.model.ProductSize;
 import com.store.repository.ProductRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Duration;
 import java.util.Optional;
 
 @Slf4j
@@ -22,17 +21,9 @@ import java.util.Optional;
 public class ProductStockSyncListener {
 
     private final ProductRepository productRepository;
-    private final StringRedisTemplate redis;
+    private final OrderIdempotencyStore idempotency;
     private final ObjectMapper om = new ObjectMapper();
 
-    // ===== Idempotency keys theo từng ITEM SIZE =====
-    private String reservedKey(String orderId, String productId, String size) {
-        return "proj:product:reserved:" + orderId + "#" + productId + "#" + size;
-    }
-    private String releasedKey(String orderId, String productId, String size) {
-        return "proj:product:released:" + orderId + "#" + productId + "#" + size;
-    }
-
     private String unwrapIfQuoted(String payload) {
         try {
             if (payload != null && !payload.isEmpty() && payload.charAt(0) == '"') {
@@ -50,16 +41,16 @@ public class ProductStockSyncListener {
         try {
             StockReserved evt = om.readValue(raw, StockReserved.class);
 
-            String key = reservedKey(evt.getOrderId(), evt.getProductId(), evt.getSize());
-            Boolean first = redis.opsForValue().setIfAbsent(key, "1", Duration.ofDays(7));
-            if (Boolean.FALSE.equals(first)) {
+            // Idempotency theo từng ITEM SIZE, chung 1 hash cho cả order
+            String field = idempotency.reservedField(evt.getProductId(), evt.getSize());
+            if (!idempotency.markOnce(evt.getOrderId(), field)) {
                 log.info("[PROD] Skip duplicate RESERVED for {}#{}#{}", evt.getOrderId(), evt.getProductId(), evt.getSize());
                 return;
             }
 
             Optional<Product> opt = productRepository.findById(evt.getProductId());
             if (opt.isEmpty()) {
-                redis.delete(key);
+                idempotency.clear(evt.getOrderId(), field);
                 log.warn("[PROD] Product not found for reserved: pid={}, size={}, orderId={}",
                         evt.getProductId(), evt.getSize(), evt.getOrderId());
                 return;
@@ -73,7 +64,7 @@ public class ProductStockSyncListener {
 
             if (ps == null) {
                 // nếu không có size tương ứng → không trừ, cho phép retry sau khi dữ liệu được sửa
-                redis.delete(key);
+                idempotency.clear(evt.getOrderId(), field);
                 log.warn("[PROD] Size not found for reserved: pid={}, size={}, orderId={}",
                         evt.getProductId(), evt.getSize(), evt.getOrderId());
                 return;
@@ -102,16 +93,15 @@ public class ProductStockSyncListener {
         try {
             ReleaseStock evt = om.readValue(raw, ReleaseStock.class);
 
-            String key = releasedKey(evt.getOrderId(), evt.getProductId(), evt.getSize());
-            Boolean first = redis.opsForValue().setIfAbsent(key, "1", Duration.ofDays(7));
-            if (Boolean.FALSE.equals(first)) {
+            String field = idempotency.releasedField(evt.getProductId(), evt.getSize());
+            if (!idempotency.markOnce(evt.getOrderId(), field)) {
                 log.info("[PROD] Skip duplicate RELEASE for {}#{}#{}", evt.getOrderId(), evt.getProductId(), evt.getSize());
                 return;
             }
 
             Optional<Product> opt = productRepository.findById(evt.getProductId());
             if (opt.isEmpty()) {
-                redis.delete(key);
+                idempotency.clear(evt.getOrderId(), field);
                 log.warn("[PROD] Product not found for release: pid={}, size={}, orderId={}",
                         evt.getProductId(), evt.getSize(), evt.getOrderId());
                 return;
@@ -124,7 +114,7 @@ public class ProductStockSyncListener {
                     .orElse(null);
 
             if (ps == null) {
-                redis.delete(key);
+                idempotency.clear(evt.getOrderId(), field);
                 log.warn("[PROD] Size not found for release: pid={}, size={}, orderId={}",
                         evt.getProductId(), evt.getSize(), evt.getOrderId());
                 return;